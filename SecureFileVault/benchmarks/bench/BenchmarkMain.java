@@ -0,0 +1,33 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of {@code target/benchmarks.jar}. Runs JMH with the given
+ * arguments and, unless a result format is given, writes machine-readable
+ * results to {@code jmh-result.json} so runs can be compared.
+ *
+ * <pre>
+ * mvn -Pbench package
+ * java -jar target/benchmarks.jar                       # everything
+ * java -jar target/benchmarks.jar FileCrypto -p size=4096,1048576
+ * java -jar target/benchmarks.jar -rff before.json Dao
+ * </pre>
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws Exception {
+		List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+		if (!jmhArgs.contains("-rf")) {
+			jmhArgs.add(0, "json");
+			jmhArgs.add(0, "-rf");
+		}
+		if (!jmhArgs.contains("-rff")) {
+			jmhArgs.add(0, "jmh-result.json");
+			jmhArgs.add(0, "-rff");
+		}
+		org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+	}
+}
@@ -0,0 +1,50 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import security.CryptoUtil;
+
+import javax.crypto.SecretKey;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory {@link CryptoUtil#encrypt(byte[], SecretKey, byte[])} and
+ * {@link CryptoUtil#decrypt(byte[], SecretKey, byte[])}. Sizes stop at 64 MB;
+ * larger files go through {@link FileCryptoBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@State(Scope.Benchmark)
+public class CryptoBenchmark {
+
+	@Param({ "4096", "65536", "1048576", "67108864" })
+	public int size;
+
+	private SecretKey key;
+	private byte[] iv;
+	private byte[] plain;
+	private byte[] cipherText;
+
+	@Setup
+	public void setup() throws Exception {
+		key = CryptoUtil.deriveKey("benchmark".toCharArray(), new byte[16], 1000);
+		iv = CryptoUtil.generateIV();
+		plain = new byte[size];
+		new Random(42).nextBytes(plain);
+		cipherText = CryptoUtil.encrypt(plain, key, iv);
+	}
+
+	@Benchmark
+	public byte[] encrypt() throws Exception {
+		// A fresh IV per call: GCM refuses to encrypt twice with the same key and IV
+		return CryptoUtil.encrypt(plain, key, CryptoUtil.generateIV());
+	}
+
+	@Benchmark
+	public byte[] decrypt() throws Exception {
+		return CryptoUtil.decrypt(cipherText, key, iv);
+	}
+}
@@ -0,0 +1,93 @@
+package bench;
+
+import dao.AuditLogDAO;
+import dao.FileDAO;
+import db.DbConnection;
+import db.SchemaMigrator;
+import model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DAO hot paths against a scratch SQLite file, created and migrated for each
+ * trial and seeded with {@code rows} files and audit events for one owner.
+ * The DAO caches are off except in {@link #findFilesByOwnerCached}, so the
+ * other benchmarks measure SQLite.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dvault.cache.ttl=0")
+@State(Scope.Benchmark)
+public class DaoBenchmark {
+
+	private static final String OWNER = "bench@vault.local";
+
+	@Param({ "100", "10000" })
+	public int rows;
+
+	private final FileDAO fileDao = new FileDAO();
+	private final AuditLogDAO auditDao = new AuditLogDAO();
+	private final User owner = new User("Bench", "User", OWNER, null, "USER", null);
+	private Path db;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		db = Files.createTempFile("vault-bench", ".db");
+		System.setProperty("vault.db", db.toString());
+		SchemaMigrator.migrate();
+		for (int i = 0; i < rows; i++) {
+			insertOne();
+			auditDao.log("FILE_UPLOAD", "file-" + i, OWNER);
+		}
+		auditDao.flush();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		AuditLogDAO.shutdown();
+		DbConnection.shutdown();
+		for (String suffix : new String[] { "", "-wal", "-shm" }) {
+			Files.deleteIfExists(Path.of(db + suffix));
+		}
+	}
+
+	@Benchmark
+	public void insertFile() {
+		insertOne();
+	}
+
+	@Benchmark
+	public List<String[]> findFilesByOwner() {
+		return fileDao.findFilesByOwner(OWNER);
+	}
+
+	/** A cache hit, including the data_version check that guards it. */
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = "-Dvault.cache.ttl=300") // replaces the class-level setting
+	public List<String[]> findFilesByOwnerCached() {
+		return fileDao.findFilesByOwner(OWNER);
+	}
+
+	/** Enqueue cost seen by the caller; the write happens on the audit thread. */
+	@Benchmark
+	public void auditLog() {
+		auditDao.log("BENCH", "target", OWNER);
+	}
+
+	@Benchmark
+	public List<Object[]> fetchLogs() {
+		return auditDao.fetchLogs(owner);
+	}
+
+	private void insertOne() {
+		String name = UUID.randomUUID().toString();
+		fileDao.insertFile(OWNER, new FileDAO.NewFile(name + ".txt", name + ".enc", "AAAAAAAAAAAAAAAA", null, name));
+	}
+}
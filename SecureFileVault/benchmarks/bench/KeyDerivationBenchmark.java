@@ -0,0 +1,49 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import security.CryptoUtil;
+import security.PasswordUtil;
+
+import javax.crypto.SecretKey;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Login cost: PBKDF2 vault-key derivation at several iteration counts and the
+ * BCrypt hash and check done for every login and registration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyDerivationBenchmark {
+
+	@Param({ "10000", "100000", "600000" })
+	public int iterations;
+
+	private final char[] password = "Benchmark#1".toCharArray();
+	private final byte[] salt = CryptoUtil.generateSalt();
+	private String hash;
+
+	@Setup
+	public void setup() {
+		hash = PasswordUtil.hashPassword(new String(password));
+	}
+
+	@Benchmark
+	public SecretKey deriveKey() throws Exception {
+		return CryptoUtil.deriveKey(password, salt, iterations);
+	}
+
+	// Independent of the iteration count; run once with: -p iterations=10000
+	@Benchmark
+	public String hashPassword() {
+		return PasswordUtil.hashPassword(new String(password));
+	}
+
+	@Benchmark
+	public boolean verifyPassword() {
+		return PasswordUtil.verifyPassword(password, hash);
+	}
+}
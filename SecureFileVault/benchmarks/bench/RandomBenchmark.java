@@ -0,0 +1,26 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import security.CryptoUtil;
+
+import java.util.concurrent.TimeUnit;
+
+/** IV and salt generation, called for every upload and registration. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class RandomBenchmark {
+
+	@Benchmark
+	public byte[] generateIV() {
+		return CryptoUtil.generateIV();
+	}
+
+	@Benchmark
+	public byte[] generateSalt() {
+		return CryptoUtil.generateSalt();
+	}
+}
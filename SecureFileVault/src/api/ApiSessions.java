@@ -0,0 +1,112 @@
+package api;
+
+import metrics.Metrics;
+import security.CryptoContext;
+import security.VaultSession;
+import service.VaultFileService;
+
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bearer tokens for logged-in API clients. A token stands for one
+ * {@link VaultSession}; it expires after {@code -Dvault.api.idleMinutes}
+ * (default 15) without requests. The vault key is wiped when the session
+ * ends, but never under a transfer that is still running.
+ */
+final class ApiSessions {
+
+	private static final long IDLE_MS = Long.getLong("vault.api.idleMinutes", 15) * 60 * 1000;
+
+	private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "vault-api-sessions");
+		t.setDaemon(true);
+		return t;
+	});
+
+	ApiSessions() {
+		sweeper.scheduleWithFixedDelay(this::expireIdle, 1, 1, TimeUnit.MINUTES);
+		Metrics.gauge("api.sessions", sessions::size);
+	}
+
+	/** Registers a new login and returns its token. */
+	String open(VaultSession vault) {
+		String token = Base64.getUrlEncoder().withoutPadding().encodeToString(CryptoContext.randomBytes(32));
+		sessions.put(token, new Session(vault));
+		return token;
+	}
+
+	/** The session for {@code token}, marked in use; null if unknown or expired. Pair with {@link Session#release()}. */
+	Session acquire(String token) {
+		Session s = token == null ? null : sessions.get(token);
+		return s != null && s.acquire() ? s : null;
+	}
+
+	/** Ends the session; a transfer still running on it finishes first. */
+	boolean close(String token) {
+		Session s = sessions.remove(token);
+		if (s == null) return false;
+		s.retire();
+		return true;
+	}
+
+	void closeAll() {
+		sweeper.shutdownNow();
+		for (String token : sessions.keySet()) close(token);
+	}
+
+	private void expireIdle() {
+		long now = System.currentTimeMillis();
+		sessions.entrySet().removeIf(e -> e.getValue().expireIfIdle(now));
+	}
+
+	// =========================
+	// SESSION
+	// =========================
+	static final class Session {
+		private final VaultSession vault;
+		private final VaultFileService files;
+		private int active; // requests in progress; guarded by this
+		private long lastUsed;
+		private boolean retired;
+
+		private Session(VaultSession vault) {
+			this.vault = vault;
+			this.files = new VaultFileService(vault.getUser().getEmail(), vault.getKey());
+			this.lastUsed = System.currentTimeMillis();
+		}
+
+		VaultFileService files() {
+			return files;
+		}
+
+		private synchronized boolean acquire() {
+			if (retired) return false;
+			active++;
+			lastUsed = System.currentTimeMillis();
+			return true;
+		}
+
+		synchronized void release() {
+			active--;
+			lastUsed = System.currentTimeMillis();
+			if (retired && active == 0) vault.close();
+		}
+
+		private synchronized void retire() {
+			if (retired) return;
+			retired = true;
+			if (active == 0) vault.close();
+		}
+
+		private synchronized boolean expireIfIdle(long now) {
+			if (active > 0 || now - lastUsed < IDLE_MS) return false;
+			retire();
+			return true;
+		}
+	}
+}
@@ -0,0 +1,374 @@
+package api;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.Timer;
+import security.CryptoProgress;
+import service.AuthService;
+import service.VaultFileService;
+
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * HTTP API for other processes on the same host, bound to the loopback
+ * interface only. Every request runs on its own virtual thread, so hundreds
+ * of slow transfers cost no more than their buffers. Bodies are streamed
+ * between the socket and the cipher one chunk at a time in both directions.
+ * <pre>
+ * POST   /api/session            log in with Basic auth; returns {"token": ...}
+ * DELETE /api/session            log out
+ * GET    /api/files              list files as JSON
+ * POST   /api/files?name=&lt;name&gt;  encrypt the request body into the vault
+ * GET    /api/files/&lt;id&gt;         download the decrypted file
+ * DELETE /api/files/&lt;id&gt;         delete the file
+ * </pre>
+ * Every call but the login takes {@code Authorization: Bearer <token>}.
+ * Uploads larger than {@code -Dvault.api.maxUploadMb} (default 4096) are
+ * refused with 413.
+ */
+public final class VaultHttpServer {
+
+	private static final int BACKLOG = 1024;
+	private static final long MAX_UPLOAD = Long.getLong("vault.api.maxUploadMb", 4096) * 1024 * 1024;
+	private static final Timer REQUEST_TIMER = Metrics.timer("api.request");
+	private static final Counter ERRORS = Metrics.counter("api.errors");
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+	private final ApiSessions sessions = new ApiSessions();
+
+	/** Binds to {@code port} on loopback; 0 picks a free port. Call {@link #start()} to serve. */
+	public VaultHttpServer(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+		server.setExecutor(executor);
+		server.createContext("/api/session", this::handle);
+		server.createContext("/api/files", this::handle);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/** Stops accepting requests, waits up to {@code delaySeconds} for running ones and ends all sessions. */
+	public void stop(int delaySeconds) {
+		server.stop(delaySeconds);
+		executor.shutdownNow();
+		sessions.closeAll();
+	}
+
+	// =========================
+	// ROUTING
+	// =========================
+	private void handle(HttpExchange ex) throws IOException {
+		long start = System.nanoTime();
+		try {
+			dispatch(ex);
+			ex.close();
+		} catch (Exception e) {
+			if (ex.getResponseCode() != -1) {
+				// The status went out with the start of the body. Not closing the
+				// exchange makes the server drop the connection, so the client sees
+				// a truncated response instead of a complete-looking one.
+				ERRORS.increment();
+				throw e instanceof IOException io ? io : new IOException(e);
+			}
+			if (e instanceof IllegalArgumentException) {
+				error(ex, 404, e.getMessage()); // unknown file id
+			} else {
+				ERRORS.increment();
+				error(ex, 500, "Request failed");
+			}
+			ex.close();
+		} finally {
+			REQUEST_TIMER.record(System.nanoTime() - start);
+		}
+	}
+
+	private void dispatch(HttpExchange ex) throws Exception {
+		String path = ex.getRequestURI().getPath();
+		String method = ex.getRequestMethod();
+		if (path.equals("/api/session")) {
+			switch (method) {
+				case "POST" -> login(ex);
+				case "DELETE" -> logout(ex);
+				default -> error(ex, 405, "Method not allowed");
+			}
+			return;
+		}
+
+		ApiSessions.Session session = sessions.acquire(bearer(ex));
+		if (session == null) {
+			error(ex, 401, "Missing or expired token");
+			return;
+		}
+		try {
+			route(ex, session.files(), path, method);
+		} finally {
+			session.release();
+		}
+	}
+
+	private void route(HttpExchange ex, VaultFileService files, String path, String method) throws Exception {
+		if (path.equals("/api/files") || path.equals("/api/files/")) {
+			switch (method) {
+				case "GET" -> list(ex, files);
+				case "POST" -> upload(ex, files);
+				default -> error(ex, 405, "Method not allowed");
+			}
+			return;
+		}
+		int id;
+		try {
+			id = Integer.parseInt(path.substring("/api/files/".length()));
+		} catch (RuntimeException e) {
+			error(ex, 404, "Not found");
+			return;
+		}
+		switch (method) {
+			case "GET" -> download(ex, files, id);
+			case "DELETE" -> {
+				files.delete(id);
+				ex.sendResponseHeaders(204, -1);
+			}
+			default -> error(ex, 405, "Method not allowed");
+		}
+	}
+
+	// =========================
+	// SESSIONS
+	// =========================
+	private void login(HttpExchange ex) throws Exception {
+		String auth = ex.getRequestHeaders().getFirst("Authorization");
+		if (auth == null || !auth.regionMatches(true, 0, "Basic ", 0, 6)) {
+			ex.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"SecureFileVault\"");
+			error(ex, 401, "Basic credentials required");
+			return;
+		}
+		byte[] raw;
+		try {
+			raw = Base64.getDecoder().decode(auth.substring(6).trim());
+		} catch (IllegalArgumentException e) {
+			error(ex, 400, "Malformed credentials");
+			return;
+		}
+		// Decode straight into a char array, so the password never becomes a String
+		CharBuffer chars = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(raw));
+		Arrays.fill(raw, (byte) 0);
+		char[] all = Arrays.copyOf(chars.array(), chars.limit());
+		Arrays.fill(chars.array(), '\0');
+		int colon = -1;
+		for (int i = 0; i < all.length && colon < 0; i++) if (all[i] == ':') colon = i;
+		if (colon < 0) {
+			Arrays.fill(all, '\0');
+			error(ex, 400, "Malformed credentials");
+			return;
+		}
+		String email = new String(all, 0, colon);
+		char[] password = Arrays.copyOfRange(all, colon + 1, all.length);
+		Arrays.fill(all, '\0');
+
+		// The auth pool bounds how many password hashes run at once, whatever the request rate
+		AuthService.Result result;
+		try {
+			result = AuthService.get().login(email, password).get();
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof Exception cause ? cause : e;
+		}
+		switch (result.status()) {
+			case SUCCESS -> json(ex, 201, "{\"token\":" + quote(sessions.open(result.session())) + "}");
+			case LOCKED -> {
+				ex.getResponseHeaders().set("Retry-After", String.valueOf((result.retryAfterMillis() + 999) / 1000));
+				error(ex, 429, "Too many failed attempts");
+			}
+			default -> error(ex, 401, "Invalid email or password");
+		}
+	}
+
+	private void logout(HttpExchange ex) throws IOException {
+		String token = bearer(ex);
+		if (token != null && sessions.close(token)) {
+			ex.sendResponseHeaders(204, -1);
+		} else {
+			error(ex, 401, "Missing or expired token");
+		}
+	}
+
+	private static String bearer(HttpExchange ex) {
+		String auth = ex.getRequestHeaders().getFirst("Authorization");
+		if (auth == null || !auth.regionMatches(true, 0, "Bearer ", 0, 7)) return null;
+		return auth.substring(7).trim();
+	}
+
+	// =========================
+	// FILES
+	// =========================
+	private void list(HttpExchange ex, VaultFileService files) throws IOException {
+		ex.getResponseHeaders().set("Content-Type", "application/json");
+		ex.sendResponseHeaders(200, 0);
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(ex.getResponseBody(), StandardCharsets.UTF_8))) {
+			out.write('[');
+			boolean first = true;
+			for (String[] row : files.listFiles()) {
+				if (!first) out.write(',');
+				first = false;
+				out.write("{\"id\":" + row[0] + ",\"name\":" + quote(row[1]) + ",\"uploaded\":" + quote(row[2]) + "}");
+			}
+			out.write(']');
+		}
+	}
+
+	private void upload(HttpExchange ex, VaultFileService files) throws Exception {
+		String name = queryParam(ex, "name");
+		if (name == null || name.isBlank()) {
+			error(ex, 400, "name parameter required");
+			return;
+		}
+		String declared = ex.getRequestHeaders().getFirst("Content-Length");
+		try {
+			if (declared != null && Long.parseLong(declared.trim()) > MAX_UPLOAD) {
+				error(ex, 413, "Upload too large");
+				return;
+			}
+		} catch (NumberFormatException e) {
+			error(ex, 400, "Malformed Content-Length");
+			return;
+		}
+		long size;
+		// Chunked bodies carry no length, so the bytes read are capped as well
+		LimitedInputStream body = new LimitedInputStream(ex.getRequestBody(), MAX_UPLOAD);
+		try (body) {
+			size = files.upload(name, body, CryptoProgress.NONE);
+		} catch (Exception e) {
+			if (!body.exceeded) throw e;
+			error(ex, 413, "Upload too large");
+			return;
+		}
+		json(ex, 201, "{\"name\":" + quote(name) + ",\"bytes\":" + size + "}");
+	}
+
+	private void download(HttpExchange ex, VaultFileService files, int id) throws Exception {
+		String name = files.fileName(id);
+		long length = files.plaintextLength(id); // -1 for legacy and compressed files: sent chunked
+		ex.getResponseHeaders().set("Content-Type", "application/octet-stream");
+		ex.getResponseHeaders().set("Content-Disposition",
+				"attachment; filename*=UTF-8''" + URLEncoder.encode(name, StandardCharsets.UTF_8).replace("+", "%20"));
+		ex.sendResponseHeaders(200, length < 0 ? 0 : length == 0 ? -1 : length);
+		if (length == 0) return;
+		try (OutputStream out = ex.getResponseBody()) {
+			files.decryptTo(id, out);
+		}
+	}
+
+	// =========================
+	// HELPERS
+	// =========================
+	private static String queryParam(HttpExchange ex, String key) {
+		String query = ex.getRequestURI().getRawQuery();
+		if (query == null) return null;
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0 && pair.substring(0, eq).equals(key)) {
+				return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+			}
+		}
+		return null;
+	}
+
+	private static void error(HttpExchange ex, int status, String message) throws IOException {
+		json(ex, status, "{\"error\":" + quote(message) + "}");
+	}
+
+	private static void json(HttpExchange ex, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		ex.getResponseHeaders().set("Content-Type", "application/json");
+		ex.sendResponseHeaders(status, bytes.length);
+		ex.getResponseBody().write(bytes);
+	}
+
+	/** Fails the read once more than {@code limit} bytes have come through. */
+	private static final class LimitedInputStream extends FilterInputStream {
+		private long remaining;
+		private boolean exceeded;
+
+		LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			this.remaining = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) count(1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) count(n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count(skipped);
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		private void count(long n) throws IOException {
+			remaining -= n;
+			if (remaining < 0) {
+				exceeded = true;
+				throw new IOException("Upload exceeds " + MAX_UPLOAD + " bytes");
+			}
+		}
+	}
+
+	private static String quote(String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+		for (char c : s.toCharArray()) {
+			switch (c) {
+				case '"' -> sb.append("\\\"");
+				case '\\' -> sb.append("\\\\");
+				case '\n' -> sb.append("\\n");
+				case '\r' -> sb.append("\\r");
+				case '\t' -> sb.append("\\t");
+				default -> {
+					if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+					else sb.append(c);
+				}
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
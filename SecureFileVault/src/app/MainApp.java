@@ -1,10 +1,43 @@
 package app;
 
+import dao.AuditLogDAO;
+import db.DbConnection;
+import db.SchemaMigrator;
+import security.CostCalibrator;
+import service.SecureWipeService;
 import ui.LoginFrame;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 public class MainApp {
+
+	// Run first by the shutdown hook, while the audit writer and the database are still open
+	private static final List<Runnable> BEFORE_SHUTDOWN = new CopyOnWriteArrayList<>();
+
 	public static void main(String[] args) {
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			for (Runnable task : BEFORE_SHUTDOWN) task.run();
+			AuditLogDAO.shutdown(); // flush queued audit events before the pool closes
+			DbConnection.shutdown();
+		}, "vault-shutdown"));
+		if (args.length > 0) {
+			// Headless: run one command and exit without loading the UI
+			System.exit(VaultCli.run(args));
+		}
+		CostCalibrator.start(); // runs while the schema is migrated and the UI comes up
+		SchemaMigrator.migrate();
+		SecureWipeService.get().resume();
 		new LoginFrame();
 
 	}
+
+	/**
+	 * Registers a task for the single shutdown hook, e.g. stopping a server.
+	 * It runs before the audit log is flushed and the database closed, so it
+	 * may still use both.
+	 */
+	static void beforeShutdown(Runnable task) {
+		BEFORE_SHUTDOWN.add(task);
+	}
 }
@@ -0,0 +1,337 @@
+package app;
+
+import api.VaultHttpServer;
+import dao.AuditLogDAO;
+import db.SchemaMigrator;
+import model.AuditLogFilter;
+import security.CostCalibrator;
+import security.VaultSession;
+import service.AuthService;
+import service.BulkUploader;
+import service.JobContext;
+import service.SecureWipeService;
+import service.VaultFileService;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Console;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Command-line mode for scripted use on machines without a display. Logs in
+ * through {@link AuthService} like the login window, runs one command and
+ * exits. Nothing here touches AWT or Swing. Data goes to stdout; progress,
+ * throughput and the log messages the app normally prints go to stderr, so
+ * output can be piped.
+ */
+final class VaultCli {
+
+	static final int OK = 0;
+	static final int FAILED = 1;
+	static final int USAGE = 2;
+	static final int DENIED = 3;
+
+	private static final String USAGE_TEXT = """
+			Usage: SecureFileVault <command> [options]
+			  list                                 list your files (id, uploaded, name)
+			  upload <file|dir>...                 encrypt into the vault; originals are securely wiped
+			  decrypt <id>... | --all --out <dir>  restore files into a directory
+			  decrypt <id> --out -                 stream one file to stdout
+			  audit-export [--format csv|jsonl] [--action <a>] [--by <email>]
+			               [--from <time>] [--to <time>] [--out <file>|-]
+			  serve [--port <n>]                   run the HTTP API on 127.0.0.1 (default port 8787)
+			Options:
+			  --user <email>   account to use (default: $VAULT_USER)
+			  --threads <n>    parallel encrypt/decrypt workers (default: cores)
+			The password is read from the console, or from $VAULT_PASSWORD when there is none.
+			Times are ISO local date-times, e.g. 2024-05-01T00:00.""";
+
+	/** The real stdout; {@code System.out} is pointed at stderr. */
+	private final PrintStream data = new PrintStream(new FileOutputStream(FileDescriptor.out), false, StandardCharsets.UTF_8);
+	private final Map<String, String> options = new HashMap<>();
+	private final List<String> operands = new ArrayList<>();
+	private String command;
+
+	private VaultCli() {
+	}
+
+	/** Runs the command in {@code args} and returns the process exit code. */
+	static int run(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		VaultCli cli = new VaultCli();
+		System.setOut(System.err);
+		if (!cli.parse(args)) {
+			System.err.println(USAGE_TEXT);
+			return USAGE;
+		}
+		try {
+			CostCalibrator.start(); // login needs it; runs while the schema is checked
+			SchemaMigrator.migrate();
+			return cli.execute();
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			return USAGE;
+		} catch (Exception e) {
+			System.err.println("Failed: " + e.getMessage());
+			return FAILED;
+		} finally {
+			cli.data.flush();
+		}
+	}
+
+	// =========================
+	// ARGUMENTS
+	// =========================
+	private boolean parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String a = args[i];
+			if (a.equals("--all")) {
+				options.put("all", "");
+			} else if (a.startsWith("--")) {
+				if (i + 1 >= args.length) return false;
+				options.put(a.substring(2), args[++i]);
+			} else if (command == null) {
+				command = a;
+			} else {
+				operands.add(a);
+			}
+		}
+		return command != null && !command.equals("help");
+	}
+
+	private int threads() {
+		String n = options.get("threads");
+		try {
+			return n == null ? Runtime.getRuntime().availableProcessors() : Math.max(1, Integer.parseInt(n));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a thread count: " + n);
+		}
+	}
+
+	private static LocalDateTime time(String value) {
+		try {
+			return value == null ? null : LocalDateTime.parse(value);
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Not a date-time: " + value);
+		}
+	}
+
+	// =========================
+	// LOGIN
+	// =========================
+	private int execute() throws Exception {
+		switch (command) {
+			case "list", "upload", "decrypt", "audit-export" -> { }
+			case "serve" -> {
+				return serve(); // API clients log in themselves
+			}
+			default -> throw new IllegalArgumentException("Unknown command: " + command + "\n" + USAGE_TEXT);
+		}
+
+		String email = options.getOrDefault("user", System.getenv("VAULT_USER"));
+		if (email == null || email.isBlank()) throw new IllegalArgumentException("No account: use --user or VAULT_USER");
+		char[] password = readPassword(email);
+		if (password == null) throw new IllegalArgumentException("No password: run on a console or set VAULT_PASSWORD");
+
+		AuthService.Result result = AuthService.get().authenticate(email, password);
+		switch (result.status()) {
+			case LOCKED -> {
+				System.err.println("Too many failed attempts. Try again in " + (result.retryAfterMillis() + 999) / 1000 + " s.");
+				return DENIED;
+			}
+			case INVALID -> {
+				System.err.println("Invalid email or password.");
+				return DENIED;
+			}
+			default -> { }
+		}
+
+		try (VaultSession session = result.session()) {
+			VaultFileService files = new VaultFileService(session.getUser().getEmail(), session.getKey());
+			return switch (command) {
+				case "list" -> list(files);
+				case "upload" -> upload(files);
+				case "decrypt" -> decrypt(files);
+				default -> auditExport(session);
+			};
+		}
+	}
+
+	private static char[] readPassword(String email) {
+		Console console = System.console();
+		if (console != null) return console.readPassword("Password for %s: ", email);
+		String env = System.getenv("VAULT_PASSWORD");
+		return env == null ? null : env.toCharArray();
+	}
+
+	// =========================
+	// COMMANDS
+	// =========================
+	private int list(VaultFileService files) {
+		for (String[] row : files.listFiles()) {
+			data.println(row[0] + "\t" + row[2] + "\t" + row[1]);
+		}
+		return OK;
+	}
+
+	private int upload(VaultFileService files) throws Exception {
+		if (operands.isEmpty()) throw new IllegalArgumentException("Nothing to upload");
+		List<Path> roots = new ArrayList<>();
+		for (String o : operands) {
+			Path p = Path.of(o);
+			if (!Files.exists(p)) throw new IllegalArgumentException("No such file: " + o);
+			roots.add(p);
+		}
+
+		SecureWipeService.get().resume();
+		JobContext ctx = new JobContext();
+		BulkUploader.Result r = files.uploadAll(roots, threads(), ctx, batch -> System.err.println("Batch " + batch.batch()
+				+ ": " + batch.stored() + " stored, " + batch.failed() + " failed, " + mb(batch.bytes()) + " in "
+				+ batch.millis() + " ms"));
+		r.failures().forEach(f -> System.err.println("  " + f));
+		report("Encrypted", r.stored(), r.failed(), ctx);
+
+		// The originals are only gone once their wipes have finished
+		SecureWipeService wipe = SecureWipeService.get();
+		while (!wipe.awaitIdle(5_000)) {
+			System.err.println("Waiting for " + wipe.pendingCount() + " secure wipe(s)...");
+		}
+		return r.failed() == 0 ? OK : FAILED;
+	}
+
+	private int decrypt(VaultFileService files) throws Exception {
+		String out = options.get("out");
+		if (out == null) throw new IllegalArgumentException("decrypt needs --out <dir> or --out -");
+
+		Map<Integer, String> names = new HashMap<>();
+		for (String[] row : files.listFiles()) names.put(Integer.parseInt(row[0]), row[1]);
+		List<Integer> ids = new ArrayList<>();
+		if (options.containsKey("all")) {
+			ids.addAll(names.keySet());
+		} else {
+			for (String o : operands) {
+				try {
+					ids.add(Integer.parseInt(o));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Not a file id: " + o);
+				}
+			}
+		}
+		if (ids.isEmpty()) throw new IllegalArgumentException("Nothing to decrypt");
+
+		if (out.equals("-")) {
+			if (ids.size() != 1) throw new IllegalArgumentException("Only one file can be streamed to stdout");
+			long start = System.nanoTime();
+			OutputStream stdout = new BufferedOutputStream(data, 1 << 16);
+			long bytes = files.decryptTo(ids.get(0), stdout);
+			stdout.flush();
+			System.err.printf(Locale.ROOT, "Decrypted %s in %.1f s%n", mb(bytes), (System.nanoTime() - start) / 1e9);
+			return OK;
+		}
+
+		Path dir = Path.of(out).toAbsolutePath().normalize();
+		Files.createDirectories(dir);
+		JobContext ctx = new JobContext();
+		AtomicInteger failed = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads(), ids.size()));
+		try {
+			List<Future<?>> done = new ArrayList<>();
+			for (int id : ids) {
+				done.add(pool.submit(() -> {
+					try {
+						String name = names.get(id);
+						if (name == null) throw new IllegalArgumentException("File not found: " + id);
+						// Names of imported trees are relative paths; keep them inside the target
+						Path target = dir.resolve(name).normalize();
+						if (!target.startsWith(dir) || target.equals(dir)) throw new IllegalArgumentException("Unsafe name: " + name);
+						if (Files.exists(target)) throw new IllegalArgumentException(target + " already exists");
+						Files.createDirectories(target.getParent());
+						files.decryptTo(id, target, ctx);
+					} catch (Exception e) {
+						failed.incrementAndGet();
+						System.err.println("  " + id + ": " + e.getMessage());
+					}
+				}));
+			}
+			for (Future<?> f : done) f.get();
+		} finally {
+			pool.shutdownNow();
+		}
+		report("Decrypted", ids.size() - failed.get(), failed.get(), ctx);
+		return failed.get() == 0 ? OK : FAILED;
+	}
+
+	private int auditExport(VaultSession session) throws Exception {
+		String format = options.getOrDefault("format", "csv").toUpperCase(Locale.ROOT);
+		AuditLogDAO.ExportFormat exportFormat;
+		try {
+			exportFormat = AuditLogDAO.ExportFormat.valueOf(format);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown format: " + format);
+		}
+		AuditLogFilter filter = new AuditLogFilter(options.get("action"), options.get("by"),
+				time(options.get("from")), time(options.get("to")));
+
+		String out = options.getOrDefault("out", "-");
+		OutputStream target = out.equals("-") ? data : Files.newOutputStream(Path.of(out));
+		long start = System.nanoTime();
+		long rows;
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8), 1 << 16)) {
+			rows = new AuditLogDAO().exportLogs(session.getUser(), filter, exportFormat, writer);
+		}
+		System.err.printf(Locale.ROOT, "Exported %d audit entries in %.1f s%n", rows, (System.nanoTime() - start) / 1e9);
+		return OK;
+	}
+
+	private int serve() throws Exception {
+		int port;
+		try {
+			port = Integer.parseInt(options.getOrDefault("port", "8787"));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a port: " + options.get("port"));
+		}
+		VaultHttpServer server = new VaultHttpServer(port);
+		CountDownLatch stopped = new CountDownLatch(1);
+		// Not a hook of its own: hooks run in no set order, and requests in flight
+		// still write audit events and query the database
+		MainApp.beforeShutdown(() -> {
+			server.stop(2);
+			stopped.countDown();
+		});
+		server.start();
+		System.err.println("Serving the vault API on http://127.0.0.1:" + server.getPort() + "/api (Ctrl+C to stop)");
+		stopped.await();
+		return OK;
+	}
+
+	// =========================
+	// REPORTING
+	// =========================
+	private static void report(String verb, int files, int failed, JobContext ctx) {
+		System.err.printf(Locale.ROOT, "%s %d file(s), %s at %.1f MB/s; %d failed%n", verb, files, mb(ctx.getDone()),
+				ctx.bytesPerSecond() / (1024 * 1024), failed);
+	}
+
+	private static String mb(long bytes) {
+		return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024));
+	}
+}
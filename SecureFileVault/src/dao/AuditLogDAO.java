@@ -1,46 +1,70 @@
 package dao;
 
 import db.DbConnection;
+import metrics.Counter;
+import metrics.Metrics;
+import model.AuditLogFilter;
+import model.User;
+
+import java.io.IOException;
+import java.io.Writer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.List;
+
 public class AuditLogDAO {
 
+	private static final long FLUSH_TIMEOUT_MS = 5_000;
+	private static final Counter ERRORS = Metrics.counter("audit.errors");
+
+	public enum ExportFormat { CSV, JSONL }
+
 	/**
 	 * Logs security-relevant actions. Audit logging must NEVER interrupt main
-	 * system flow.
+	 * system flow: events are queued and written in batches by a background
+	 * writer, and this call never throws.
 	 */
 	public void log(String action, String targetEmail, String performedBy) {
-
-		String sql = "INSERT INTO audit_log (action, target_email, performed_by, timestamp) "
-				+ "VALUES (?, ?, ?, datetime('now','localtime'))";
-
-		try (Connection conn = DbConnection.connect(); PreparedStatement ps = conn.prepareStatement(sql)) {
-
-			ps.setString(1, action);
-			ps.setString(2, targetEmail);
-			ps.setString(3, performedBy);
-
-			ps.executeUpdate();
-
+		try {
+			AuditLogWriter.get().submit(action, targetEmail, performedBy);
 		} catch (Exception e) {
 			// Silent fail by design
 			System.err.println("Audit log failed: " + e.getMessage());
+			ERRORS.increment();
+		}
+	}
+
+	/**
+	 * Blocks until everything logged so far is on disk (or a few seconds pass).
+	 */
+	public void flush() {
+		if (!AuditLogWriter.get().flush(FLUSH_TIMEOUT_MS)) {
+			System.err.println("Audit log flush timed out");
 		}
 	}
-	
+
+	/**
+	 * Flushes pending audit events. Called from the JVM shutdown hook before
+	 * the connection pool closes.
+	 */
+	public static void shutdown() {
+		new AuditLogDAO().flush();
+	}
+
 	public java.util.List<Object[]> fetchLogs(model.User user) {
 	    java.util.List<Object[]> data = new java.util.ArrayList<>();
 	    
 	    // 权限逻辑：admin 查全部，普通用户只能查自己
 	    boolean isAdmin = "admin".equalsIgnoreCase(user.getRole());
 	    String sql = isAdmin 
-	        ? "SELECT id, action, target_email, performed_by, timestamp FROM audit_log ORDER BY timestamp DESC"
-	        : "SELECT id, action, target_email, performed_by, timestamp FROM audit_log WHERE performed_by = ? ORDER BY timestamp DESC";
+	        ? "SELECT id, action, target_email, performed_by, timestamp FROM audit_log ORDER BY ts_epoch DESC, id DESC"
+	        : "SELECT id, action, target_email, performed_by, timestamp FROM audit_log WHERE performed_by = ? ORDER BY ts_epoch DESC, id DESC";
 
-	    try (java.sql.Connection conn = db.DbConnection.connect(); 
+	    try (java.sql.Connection conn = db.DbConnection.connectForRead(); 
 	         java.sql.PreparedStatement ps = conn.prepareStatement(sql)) {
 	        
 	        if (!isAdmin) {
@@ -60,7 +84,167 @@ public class AuditLogDAO {
 	        }
 	    } catch (Exception e) {
 	        System.err.println("Error fetching audit logs: " + e.getMessage());
+	        ERRORS.increment();
 	    }
 	    return data;
 	}
+
+	// =========================
+	// PAGED QUERY (KEYSET)
+	// =========================
+	/**
+	 * Returns up to {@code pageSize} rows, newest first, that match the filter.
+	 * Pass the last row of the previous page as {@code lastRow} (null for the
+	 * first page); the next page continues strictly after it. Rows have the
+	 * same columns as {@link #fetchLogs} plus the epoch timestamp used as the
+	 * keyset at index 5. Non-admins only ever see their own rows.
+	 */
+	public List<Object[]> fetchLogsPage(User user, AuditLogFilter filter, Object[] lastRow, int pageSize) {
+		List<Object[]> data = new ArrayList<>(pageSize);
+		List<Object> params = new ArrayList<>();
+		StringBuilder sql = new StringBuilder("SELECT id, action, target_email, performed_by, timestamp, ts_epoch FROM audit_log");
+		appendWhere(sql, params, user, filter);
+		if (lastRow != null) {
+			sql.append(params.isEmpty() ? " WHERE " : " AND ");
+			sql.append("(ts_epoch < ? OR (ts_epoch = ? AND id < ?))");
+			params.add(lastRow[5]);
+			params.add(lastRow[5]);
+			params.add(lastRow[0]);
+		}
+		sql.append(" ORDER BY ts_epoch DESC, id DESC LIMIT ?");
+		params.add(pageSize);
+
+		try (Connection conn = DbConnection.connectForRead();
+			 PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+			bind(ps, params);
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) data.add(readRow(rs));
+			}
+		} catch (Exception e) {
+			System.err.println("Error fetching audit logs: " + e.getMessage());
+			ERRORS.increment();
+		}
+		return data;
+	}
+
+	// =========================
+	// STREAMING EXPORT
+	// =========================
+	/**
+	 * Writes every matching row to {@code out} as CSV or JSON Lines, streaming
+	 * from the cursor so the result set is never held in memory. Returns the
+	 * number of rows written.
+	 */
+	public long exportLogs(User user, AuditLogFilter filter, ExportFormat format, Writer out)
+			throws SQLException, IOException {
+		List<Object> params = new ArrayList<>();
+		StringBuilder sql = new StringBuilder("SELECT id, action, target_email, performed_by, timestamp, ts_epoch FROM audit_log");
+		appendWhere(sql, params, user, filter);
+		sql.append(" ORDER BY ts_epoch DESC, id DESC");
+
+		long count = 0;
+		try (Connection conn = DbConnection.connectForRead();
+			 PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+			bind(ps, params);
+			ps.setFetchSize(500);
+			if (format == ExportFormat.CSV) {
+				out.write("id,action,target_email,performed_by,timestamp\n");
+			}
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					Object[] row = readRow(rs);
+					out.write(format == ExportFormat.CSV ? toCsv(row) : toJson(row));
+					out.write('\n');
+					count++;
+				}
+			}
+		}
+		out.flush();
+		return count;
+	}
+
+	// =========================
+	// QUERY HELPERS
+	// =========================
+	private static void appendWhere(StringBuilder sql, List<Object> params, User user, AuditLogFilter filter) {
+		List<String> clauses = new ArrayList<>();
+		boolean isAdmin = "admin".equalsIgnoreCase(user.getRole());
+		String performedBy = isAdmin ? filter.getPerformedBy() : user.getEmail();
+		if (performedBy != null) {
+			clauses.add("performed_by = ?");
+			params.add(performedBy);
+		}
+		if (filter.getAction() != null) {
+			clauses.add("action = ?");
+			params.add(filter.getAction());
+		}
+		if (filter.getFrom() != null) {
+			clauses.add("ts_epoch >= ?");
+			params.add(filter.getFrom().atZone(ZoneId.systemDefault()).toEpochSecond());
+		}
+		if (filter.getTo() != null) {
+			clauses.add("ts_epoch < ?");
+			params.add(filter.getTo().atZone(ZoneId.systemDefault()).toEpochSecond());
+		}
+		if (!clauses.isEmpty()) {
+			sql.append(" WHERE ").append(String.join(" AND ", clauses));
+		}
+	}
+
+	private static void bind(PreparedStatement ps, List<Object> params) throws SQLException {
+		for (int i = 0; i < params.size(); i++) {
+			ps.setObject(i + 1, params.get(i));
+		}
+	}
+
+	private static Object[] readRow(ResultSet rs) throws SQLException {
+		return new Object[] {
+			rs.getInt("id"),
+			rs.getString("action"),
+			rs.getString("target_email"),
+			rs.getString("performed_by"),
+			rs.getString("timestamp"),
+			rs.getLong("ts_epoch")
+		};
+	}
+
+	private static String toCsv(Object[] row) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5; i++) {
+			if (i > 0) sb.append(',');
+			String v = row[i] == null ? "" : row[i].toString();
+			if (v.contains(",") || v.contains("\"") || v.contains("\n")) {
+				v = "\"" + v.replace("\"", "\"\"") + "\"";
+			}
+			sb.append(v);
+		}
+		return sb.toString();
+	}
+
+	private static String toJson(Object[] row) {
+		return "{\"id\":" + row[0]
+				+ ",\"action\":" + jsonString(row[1])
+				+ ",\"target_email\":" + jsonString(row[2])
+				+ ",\"performed_by\":" + jsonString(row[3])
+				+ ",\"timestamp\":" + jsonString(row[4]) + "}";
+	}
+
+	private static String jsonString(Object value) {
+		if (value == null) return "null";
+		StringBuilder sb = new StringBuilder("\"");
+		for (char c : value.toString().toCharArray()) {
+			switch (c) {
+			case '"' -> sb.append("\\\"");
+			case '\\' -> sb.append("\\\\");
+			case '\n' -> sb.append("\\n");
+			case '\r' -> sb.append("\\r");
+			case '\t' -> sb.append("\\t");
+			default -> {
+				if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+				else sb.append(c);
+			}
+			}
+		}
+		return sb.append('"').toString();
+	}
 }
@@ -0,0 +1,170 @@
+package dao;
+
+import db.DbConnection;
+import metrics.Counter;
+import metrics.Metrics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background writer behind {@link AuditLogDAO#log}. Events go into a bounded
+ * queue; a single thread drains whatever is queued and inserts it in one
+ * transaction, so a burst of N events costs one commit instead of N.
+ * <p>
+ * When the queue is full the {@code vault.audit.overflow} policy applies:
+ * {@code block} (default) waits up to {@link #BLOCK_TIMEOUT_MS} for room,
+ * {@code drop} drops the event at once. Either way the caller never fails.
+ */
+final class AuditLogWriter {
+
+	private static final int CAPACITY = Integer.getInteger("vault.audit.queue", 10_000);
+	private static final boolean DROP_WHEN_FULL = "drop".equalsIgnoreCase(System.getProperty("vault.audit.overflow"));
+	private static final long BLOCK_TIMEOUT_MS = 2_000;
+	private static final int MAX_BATCH = 500;
+
+	private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+	private static final String SQL = "INSERT INTO audit_log (action, target_email, performed_by, timestamp, ts_epoch) "
+			+ "VALUES (?, ?, ?, ?, ?)";
+
+	private static final Counter DROPPED = Metrics.counter("audit.dropped");
+	private static final Counter WRITE_FAILURES = Metrics.counter("audit.write.failures");
+
+	private static final AuditLogWriter INSTANCE = new AuditLogWriter();
+
+	private record Event(String action, String targetEmail, String performedBy, String timestamp, long epoch) {
+	}
+
+	private final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(CAPACITY);
+	private final Object progress = new Object();
+	private long enqueued; // guarded by progress
+	private long completed; // guarded by progress; written or given up on
+	private Thread worker;
+
+	static AuditLogWriter get() {
+		return INSTANCE;
+	}
+
+	private AuditLogWriter() {
+		Metrics.gauge("audit.queue.depth", this::queueDepth);
+	}
+
+	// =========================
+	// PRODUCER SIDE
+	// =========================
+	void submit(String action, String targetEmail, String performedBy) {
+		startIfNeeded();
+		ZonedDateTime now = ZonedDateTime.now();
+		synchronized (progress) {
+			enqueued++;
+		}
+		Event event = new Event(action, targetEmail, performedBy, now.format(TIMESTAMP), now.toEpochSecond());
+
+		boolean accepted;
+		try {
+			accepted = DROP_WHEN_FULL ? queue.offer(event)
+					: queue.offer(event, BLOCK_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			accepted = false;
+		}
+		if (!accepted) {
+			System.err.println("Audit log dropped (queue full): " + action);
+			DROPPED.increment();
+			markDone(1);
+		}
+	}
+
+	/**
+	 * Waits until every event submitted before this call has been written or
+	 * given up on. Returns false if the timeout elapsed first.
+	 */
+	boolean flush(long timeoutMillis) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (progress) {
+			long target = enqueued;
+			while (completed < target) {
+				long left = deadline - System.currentTimeMillis();
+				if (left <= 0) return false;
+				try {
+					progress.wait(left);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	int queueDepth() {
+		return queue.size();
+	}
+
+	// =========================
+	// WRITER THREAD
+	// =========================
+	private synchronized void startIfNeeded() {
+		if (worker != null) return;
+		worker = new Thread(this::run, "audit-writer");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	private void run() {
+		List<Event> batch = new ArrayList<>(MAX_BATCH);
+		while (true) {
+			try {
+				batch.add(queue.take());
+				queue.drainTo(batch, MAX_BATCH - 1);
+				write(batch);
+			} catch (InterruptedException e) {
+				return;
+			} catch (Exception e) {
+				// Silent fail by design
+				System.err.println("Audit log failed: " + e.getMessage());
+				WRITE_FAILURES.add(batch.size());
+			} finally {
+				if (!batch.isEmpty()) markDone(batch.size());
+				batch.clear();
+			}
+		}
+	}
+
+	private void write(List<Event> batch) throws Exception {
+		try (Connection conn = DbConnection.connect()) {
+			conn.setAutoCommit(false);
+			try (PreparedStatement ps = conn.prepareStatement(SQL)) {
+				for (Event e : batch) {
+					ps.setString(1, e.action());
+					ps.setString(2, e.targetEmail());
+					ps.setString(3, e.performedBy());
+					ps.setString(4, e.timestamp());
+					ps.setLong(5, e.epoch());
+					ps.addBatch();
+				}
+				ps.executeBatch();
+				conn.commit();
+			} catch (Exception e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(true);
+			}
+		}
+	}
+
+	private void markDone(int count) {
+		synchronized (progress) {
+			completed += count;
+			progress.notifyAll();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package dao;
+
+import metrics.Counter;
+import metrics.Metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Read-through LRU cache in front of a DAO query, bounded by size
+ * ({@code -Dvault.cache.size}, default 1000) and age ({@code -Dvault.cache.ttl}
+ * seconds, default 300; 0 disables caching). Writers invalidate the keys they
+ * change after committing. A load that overlaps an invalidation is returned
+ * but not stored, so a read racing a write cannot put the old row back.
+ * Hits, misses and evictions are counted under {@code cache.<name>.*}.
+ * <p>
+ * Rows other processes may change are cached with a {@code version} source
+ * such as {@link db.DbConnection#dataVersion()}: when it moves, everything
+ * cached is dropped before the next read, and while it cannot be read (-1)
+ * nothing is served from the cache.
+ * <p>
+ * Values must not be modified once cached; callers hand out copies.
+ */
+final class DaoCache<K, V> {
+
+	private static final int MAX_ENTRIES = Integer.getInteger("vault.cache.size", 1000);
+	private static final long TTL_NANOS = Long.getLong("vault.cache.ttl", 300) * 1_000_000_000L;
+
+	private record Entry<V>(V value, long expiresAt) {
+	}
+
+	private final Map<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+			if (size() <= MAX_ENTRIES) return false;
+			evictions.increment();
+			return true;
+		}
+	};
+	private final Counter hits;
+	private final Counter misses;
+	private final Counter evictions;
+	private final LongSupplier version;
+	private long seenVersion; // guarded by this
+	private long generation; // guarded by this; bumped by every invalidation
+
+	DaoCache(String name) {
+		this(name, () -> 0);
+	}
+
+	DaoCache(String name, LongSupplier version) {
+		this.version = version;
+		hits = Metrics.counter("cache." + name + ".hits");
+		misses = Metrics.counter("cache." + name + ".misses");
+		evictions = Metrics.counter("cache." + name + ".evictions");
+		Metrics.gauge("cache." + name + ".size", this::size);
+	}
+
+	/** The cached value for {@code key}, or the loader's result; null results are not cached. */
+	V get(K key, Supplier<V> loader) {
+		long current = version.getAsLong();
+		if (current < 0) {
+			misses.increment();
+			return loader.get();
+		}
+		long loadGeneration;
+		synchronized (this) {
+			if (current != seenVersion) {
+				generation++;
+				entries.clear();
+				seenVersion = current;
+			}
+			Entry<V> e = entries.get(key);
+			if (e != null && e.expiresAt() - System.nanoTime() > 0) {
+				hits.increment();
+				return e.value();
+			}
+			if (e != null) entries.remove(key);
+			loadGeneration = generation;
+		}
+		misses.increment();
+		V value = loader.get();
+		if (value != null && TTL_NANOS > 0) {
+			synchronized (this) {
+				if (generation == loadGeneration) entries.put(key, new Entry<>(value, System.nanoTime() + TTL_NANOS));
+			}
+		}
+		return value;
+	}
+
+	synchronized void invalidate(K key) {
+		generation++;
+		entries.remove(key);
+	}
+
+	synchronized void invalidateIf(Predicate<K> matches) {
+		generation++;
+		entries.keySet().removeIf(matches);
+	}
+
+	synchronized void clear() {
+		generation++;
+		entries.clear();
+	}
+
+	synchronized long size() {
+		return entries.size();
+	}
+}
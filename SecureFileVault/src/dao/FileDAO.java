@@ -2,44 +2,202 @@ package dao;
 
 import db.DbConnection;
 import java.sql.*;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class FileDAO {
 
+	// Shared by every instance; cached arrays are never handed out, only copies. The
+	// CLI and the API server change these rows from other processes, so entries are
+	// dropped whenever the database has been committed to since they were read.
+	private static final DaoCache<String, List<String[]>> LISTS = new DaoCache<>("fileLists", DbConnection::dataVersion);
+	private static final DaoCache<String, String[]> METAS = new DaoCache<>("fileMeta", DbConnection::dataVersion);
+
+	/**
+	 * A file to record: a blob just written, with its data key wrapped under
+	 * the owner's vault key and the keyed hash of its plaintext.
+	 */
+	public record NewFile(String originalName, String encryptedPath, String ivBase64, String wrappedKey,
+			String contentHash) {
+	}
+
 	// =========================
 	// INSERT FILE
 	// =========================
-	public void insertFile(String ownerEmail, String originalName, String encryptedPath, String ivBase64) {
+	/**
+	 * Records one file. Returns the path of the caller's blob if it turned out to
+	 * duplicate one already stored (the caller deletes it), otherwise null.
+	 */
+	public String insertFile(String ownerEmail, NewFile file) {
+		List<String> orphans = insertFiles(ownerEmail, List.of(file));
+		return orphans.isEmpty() ? null : orphans.get(0);
+	}
+
+	// =========================
+	// INSERT FILES (BATCH)
+	// =========================
+	/**
+	 * Records many files in a single transaction; either all rows are stored or
+	 * none are. Files with the same content hash share one blob and bump its
+	 * reference count. Returns the paths of new blobs that turned out to be
+	 * duplicates, which the caller deletes.
+	 */
+	public List<String> insertFiles(String ownerEmail, List<NewFile> files) {
 
-		String sql = "INSERT INTO files " + "(owner_email, original_name, encrypted_path, iv, uploaded_at) "
-				+ "VALUES (?, ?, ?, ?, datetime('now','localtime'))";
+		String sql = "INSERT INTO files "
+				+ "(owner_email, original_name, encrypted_path, iv, wrapped_key, uploaded_at, uploaded_epoch) "
+				+ "VALUES (?, ?, ?, ?, ?, datetime('now','localtime'), CAST(strftime('%s','now') AS INTEGER))";
+		// Entries sharing a blob share its data key, so any one of them has the wrapped copy
+		String findSql = "SELECT b.encrypted_path, b.iv,"
+				+ " (SELECT wrapped_key FROM files f WHERE f.encrypted_path = b.encrypted_path LIMIT 1) AS wrapped_key"
+				+ " FROM blobs b WHERE b.owner_email = ? AND b.content_hash = ?";
+		String refSql = "UPDATE blobs SET ref_count = ref_count + 1 WHERE encrypted_path = ?";
+		String blobSql = "INSERT INTO blobs (encrypted_path, owner_email, content_hash, iv, ref_count) VALUES (?, ?, ?, ?, 1)";
 
-		try (Connection conn = DbConnection.connect(); PreparedStatement ps = conn.prepareStatement(sql)) {
+		List<String> orphans = new ArrayList<>();
+		// Blobs created by this batch: their rows are not inserted yet, so findSql finds no wrapped key
+		Map<String, String> createdKeys = new HashMap<>();
 
-			ps.setString(1, ownerEmail);
-			ps.setString(2, originalName);
-			ps.setString(3, encryptedPath);
-			ps.setString(4, ivBase64);
+		try (Connection conn = DbConnection.connect();
+				PreparedStatement ps = conn.prepareStatement(sql);
+				PreparedStatement find = conn.prepareStatement(findSql);
+				PreparedStatement ref = conn.prepareStatement(refSql);
+				PreparedStatement blob = conn.prepareStatement(blobSql)) {
 
-			ps.executeUpdate();
+			conn.setAutoCommit(false);
+			try {
+				for (NewFile f : files) {
+					String path = f.encryptedPath();
+					String iv = f.ivBase64();
+					String wrappedKey = f.wrappedKey();
+
+					find.setString(1, ownerEmail);
+					find.setString(2, f.contentHash());
+					ResultSet rs = find.executeQuery();
+					if (rs.next()) {
+						path = rs.getString("encrypted_path");
+						iv = rs.getString("iv");
+						wrappedKey = createdKeys.containsKey(path) ? createdKeys.get(path) : rs.getString("wrapped_key");
+						ref.setString(1, path);
+						ref.executeUpdate();
+						if (!path.equals(f.encryptedPath())) orphans.add(f.encryptedPath());
+					} else {
+						blob.setString(1, path);
+						blob.setString(2, ownerEmail);
+						blob.setString(3, f.contentHash());
+						blob.setString(4, iv);
+						blob.executeUpdate();
+						createdKeys.put(path, wrappedKey);
+					}
+
+					ps.setString(1, ownerEmail);
+					ps.setString(2, f.originalName());
+					ps.setString(3, path);
+					ps.setString(4, iv);
+					ps.setString(5, wrappedKey);
+					ps.addBatch();
+				}
+				ps.executeBatch();
+				conn.commit();
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(true);
+			}
 
 		} catch (Exception e) {
 			throw new RuntimeException("Upload failed", e);
 		}
+		LISTS.invalidate(ownerEmail);
+
+		return orphans;
+	}
+
+	// =========================
+	// DELETE FILE
+	// =========================
+	/**
+	 * Deletes one entry and releases its blob. Returns the blob path when this
+	 * was the last reference and the blob should be wiped, otherwise null.
+	 */
+	public String deleteFile(int id, String ownerEmail) {
+
+		String findSql = "SELECT encrypted_path FROM files WHERE id = ? AND owner_email = ?";
+		String deleteSql = "DELETE FROM files WHERE id = ?";
+		String releaseSql = "UPDATE blobs SET ref_count = ref_count - 1 WHERE encrypted_path = ?";
+		String countSql = "SELECT ref_count FROM blobs WHERE encrypted_path = ?";
+		String dropSql = "DELETE FROM blobs WHERE encrypted_path = ?";
+
+		try (Connection conn = DbConnection.connect()) {
+
+			conn.setAutoCommit(false);
+			try (PreparedStatement find = conn.prepareStatement(findSql);
+					PreparedStatement delete = conn.prepareStatement(deleteSql);
+					PreparedStatement release = conn.prepareStatement(releaseSql);
+					PreparedStatement count = conn.prepareStatement(countSql);
+					PreparedStatement drop = conn.prepareStatement(dropSql)) {
+
+				find.setInt(1, id);
+				find.setString(2, ownerEmail);
+				ResultSet rs = find.executeQuery();
+				if (!rs.next()) {
+					throw new SQLException("File not found: " + id);
+				}
+				String path = rs.getString("encrypted_path");
+
+				delete.setInt(1, id);
+				delete.executeUpdate();
+				release.setString(1, path);
+				release.executeUpdate();
+
+				count.setString(1, path);
+				ResultSet left = count.executeQuery();
+				// No blob row means a file that was never shared
+				boolean unreferenced = !left.next() || left.getInt("ref_count") <= 0;
+				if (unreferenced) {
+					drop.setString(1, path);
+					drop.executeUpdate();
+				}
+				conn.commit();
+				LISTS.invalidate(ownerEmail);
+				METAS.invalidate(metaKey(id, ownerEmail));
+				return unreferenced ? path : null;
+
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(true);
+			}
+
+		} catch (Exception e) {
+			throw new RuntimeException("File delete failed", e);
+		}
 	}
 
 	// =========================
 	// LIST FILES BY OWNER
 	// =========================
 	public List<String[]> findFilesByOwner(String ownerEmail) {
+		return copy(LISTS.get(ownerEmail, () -> queryFilesByOwner(ownerEmail)));
+	}
+
+	private List<String[]> queryFilesByOwner(String ownerEmail) {
 
 		List<String[]> list = new ArrayList<>();
 
 		String sql = "SELECT id, original_name, uploaded_at " + "FROM files WHERE owner_email = ? "
-				+ "ORDER BY uploaded_at DESC";
+				+ "ORDER BY uploaded_epoch DESC, id DESC";
 
-		try (Connection conn = DbConnection.connect(); PreparedStatement ps = conn.prepareStatement(sql)) {
+		try (Connection conn = DbConnection.connectForRead(); PreparedStatement ps = conn.prepareStatement(sql)) {
 
 			ps.setString(1, ownerEmail);
 			ResultSet rs = ps.executeQuery();
@@ -56,14 +214,124 @@ public class FileDAO {
 		return list;
 	}
 
+	// =========================
+	// SEARCH FILES
+	// =========================
+	private static final Pattern DATE_TERM = Pattern.compile("(\\d{4})-(\\d{2})(?:-(\\d{2}))?");
+	private static volatile Boolean ftsIndexed;
+
+	/**
+	 * The owner's files matching {@code query}, newest first, at most
+	 * {@code limit} of them. Each word must start a word of the name, ignoring
+	 * case and accents, so "rep fin" finds "Report_final.pdf". A
+	 * {@code yyyy-mm} or {@code yyyy-mm-dd} term restricts the upload month or
+	 * day instead. Names are looked up in the files_fts index, which also
+	 * holds the owner, so other owners' files are dropped inside the index
+	 * query and the time depends on the number of matches, not on the size of
+	 * the vault.
+	 */
+	public List<String[]> searchFiles(String ownerEmail, String query, int limit) {
+
+		List<String> words = new ArrayList<>();
+		long from = Long.MIN_VALUE;
+		long to = Long.MAX_VALUE;
+		for (String term : query.trim().split("\\s+")) {
+			Matcher m = DATE_TERM.matcher(term);
+			if (m.matches()) {
+				try {
+					LocalDate start = LocalDate.of(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)),
+							m.group(3) == null ? 1 : Integer.parseInt(m.group(3)));
+					LocalDate end = m.group(3) == null ? start.plusMonths(1) : start.plusDays(1);
+					from = Math.max(from, start.atStartOfDay(ZoneId.systemDefault()).toEpochSecond());
+					to = Math.min(to, end.atStartOfDay(ZoneId.systemDefault()).toEpochSecond());
+					continue;
+				} catch (DateTimeException e) {
+					// Not a real date, e.g. 2024-13: search for it as a name
+				}
+			}
+			// Terms without letters or digits hold no tokens and would not parse as a match
+			if (term.codePoints().anyMatch(Character::isLetterOrDigit)) words.add(term);
+		}
+
+		List<Object> params = new ArrayList<>();
+		StringBuilder sql = new StringBuilder("SELECT f.id, f.original_name, f.uploaded_at FROM ");
+		boolean fts = !words.isEmpty() && ftsIndexed();
+		if (fts) {
+			StringBuilder match = new StringBuilder();
+			for (String w : words) {
+				// Quoted, so the user's text is never read as query syntax; * makes it a prefix
+				match.append(match.isEmpty() ? "" : " ").append('"').append(w.replace("\"", "\"\"")).append("\"*");
+			}
+			// CROSS JOIN keeps the index as the outer loop; otherwise SQLite may walk the
+			// owner's rows in date order and probe the index once for each of them
+			sql.append("files_fts CROSS JOIN files f ON f.id = files_fts.rowid"
+					+ " WHERE files_fts MATCH ? AND files_fts.owner_email = ?");
+			params.add(match.toString());
+			params.add(ownerEmail);
+		} else {
+			sql.append("files f WHERE f.owner_email = ?");
+			params.add(ownerEmail);
+			for (String w : words) {
+				sql.append(" AND f.original_name LIKE ? ESCAPE '\\'");
+				params.add("%" + w.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+			}
+		}
+		if (from != Long.MIN_VALUE) {
+			sql.append(" AND f.uploaded_epoch >= ?");
+			params.add(from);
+		}
+		if (to != Long.MAX_VALUE) {
+			sql.append(" AND f.uploaded_epoch < ?");
+			params.add(to);
+		}
+		// Ids grow with upload time; in rowid order the index returns matches presorted and stops at the limit
+		sql.append(fts ? " ORDER BY files_fts.rowid DESC LIMIT ?" : " ORDER BY f.uploaded_epoch DESC, f.id DESC LIMIT ?");
+		params.add(limit);
+
+		List<String[]> list = new ArrayList<>();
+		try (Connection conn = DbConnection.connectForRead(); PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+
+			for (int i = 0; i < params.size(); i++) ps.setObject(i + 1, params.get(i));
+			ResultSet rs = ps.executeQuery();
+			while (rs.next()) {
+				list.add(new String[] { rs.getString("id"), rs.getString("original_name"), rs.getString("uploaded_at") });
+			}
+
+		} catch (SQLException e) {
+			throw new RuntimeException("File search failed", e);
+		}
+
+		return list;
+	}
+
+	/** Whether migration v8 could create the index; SQLite builds without FTS5 search by scanning. */
+	private static boolean ftsIndexed() {
+		Boolean indexed = ftsIndexed;
+		if (indexed != null) return indexed;
+		try (Connection conn = DbConnection.connectForRead();
+				PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM sqlite_master WHERE name = 'files_fts'");
+				ResultSet rs = ps.executeQuery()) {
+			indexed = rs.next();
+		} catch (SQLException e) {
+			return false;
+		}
+		ftsIndexed = indexed;
+		return indexed;
+	}
+
 	// =========================
 	// GET FILE METADATA
 	// =========================
 	public String[] getFileMetaById(int id, String ownerEmail) {
+		String[] meta = METAS.get(metaKey(id, ownerEmail), () -> queryFileMeta(id, ownerEmail));
+		return meta == null ? null : meta.clone();
+	}
+
+	private String[] queryFileMeta(int id, String ownerEmail) {
 
-		String sql = "SELECT encrypted_path, iv, original_name " + "FROM files WHERE id = ? AND owner_email = ?";
+		String sql = "SELECT encrypted_path, iv, original_name, wrapped_key " + "FROM files WHERE id = ? AND owner_email = ?";
 
-		try (Connection conn = DbConnection.connect(); PreparedStatement ps = conn.prepareStatement(sql)) {
+		try (Connection conn = DbConnection.connectForRead(); PreparedStatement ps = conn.prepareStatement(sql)) {
 
 			ps.setInt(1, id);
 			ps.setString(2, ownerEmail);
@@ -71,7 +339,7 @@ public class FileDAO {
 			ResultSet rs = ps.executeQuery();
 			if (rs.next()) {
 				return new String[] { rs.getString("encrypted_path"), rs.getString("iv"),
-						rs.getString("original_name") };
+						rs.getString("original_name"), rs.getString("wrapped_key") };
 			}
 
 		} catch (SQLException e) {
@@ -80,4 +348,136 @@ public class FileDAO {
 
 		return null;
 	}
+
+	// =========================
+	// WRAPPED DATA KEYS
+	// =========================
+	/**
+	 * Returns {@code {id, wrapped_key}} for every file of the owner. The key is
+	 * null for files written before envelope encryption, which are encrypted
+	 * directly under the vault key. Runs on the caller's connection: inside its
+	 * transaction no upload can slip in between read and update.
+	 */
+	public List<String[]> findWrappedKeys(Connection conn, String ownerEmail) {
+
+		List<String[]> list = new ArrayList<>();
+		String sql = "SELECT id, wrapped_key FROM files WHERE owner_email = ?";
+
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+
+			ps.setString(1, ownerEmail);
+			ResultSet rs = ps.executeQuery();
+			while (rs.next()) {
+				list.add(new String[] { rs.getString("id"), rs.getString("wrapped_key") });
+			}
+
+		} catch (SQLException e) {
+			throw new RuntimeException("Key lookup failed", e);
+		}
+
+		return list;
+	}
+
+	/**
+	 * Replaces wrapped data keys, given as {@code {id, wrapped_key}}, on the
+	 * caller's connection, inside its transaction together with the password
+	 * update. Nothing is evicted: the caller calls {@link #evictOwner} once it
+	 * has committed.
+	 */
+	public void updateWrappedKeys(Connection conn, String ownerEmail, List<String[]> keys) {
+
+		String sql = "UPDATE files SET wrapped_key = ? WHERE id = ? AND owner_email = ?";
+
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+
+			for (String[] k : keys) {
+				ps.setString(1, k[1]);
+				ps.setInt(2, Integer.parseInt(k[0]));
+				ps.setString(3, ownerEmail);
+				ps.addBatch();
+			}
+			ps.executeBatch();
+
+		} catch (SQLException e) {
+			throw new RuntimeException("Key update failed", e);
+		}
+	}
+
+	/** Drops everything cached for the owner, e.g. after a transaction that changed their rows has committed. */
+	public void evictOwner(String ownerEmail) {
+		LISTS.invalidate(ownerEmail);
+		String suffix = "|" + ownerEmail;
+		METAS.invalidateIf(k -> k.endsWith(suffix));
+	}
+
+	// =========================
+	// BLOB LOCATIONS
+	// =========================
+	/** Every distinct blob key referenced by any owner, for storage migration. */
+	public List<String> findBlobKeys() {
+
+		List<String> keys = new ArrayList<>();
+		String sql = "SELECT encrypted_path FROM files UNION SELECT encrypted_path FROM blobs";
+
+		try (Connection conn = DbConnection.connectForRead();
+				Statement st = conn.createStatement();
+				ResultSet rs = st.executeQuery(sql)) {
+
+			while (rs.next()) keys.add(rs.getString(1));
+
+		} catch (SQLException e) {
+			throw new RuntimeException("Blob key load failed", e);
+		}
+
+		return keys;
+	}
+
+	/** Points every row at the new key of a moved blob, given as {@code {oldKey, newKey}}. */
+	public void relocateBlobs(List<String[]> moves) {
+
+		String filesSql = "UPDATE files SET encrypted_path = ? WHERE encrypted_path = ?";
+		String blobsSql = "UPDATE blobs SET encrypted_path = ? WHERE encrypted_path = ?";
+
+		try (Connection conn = DbConnection.connect();
+				PreparedStatement files = conn.prepareStatement(filesSql);
+				PreparedStatement blobs = conn.prepareStatement(blobsSql)) {
+
+			conn.setAutoCommit(false);
+			try {
+				for (String[] m : moves) {
+					files.setString(1, m[1]);
+					files.setString(2, m[0]);
+					files.addBatch();
+					blobs.setString(1, m[1]);
+					blobs.setString(2, m[0]);
+					blobs.addBatch();
+				}
+				files.executeBatch();
+				blobs.executeBatch();
+				conn.commit();
+				METAS.clear(); // paths changed under every owner
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(true);
+			}
+
+		} catch (SQLException e) {
+			throw new RuntimeException("Blob relocation failed", e);
+		}
+	}
+
+	// =========================
+	// CACHE
+	// =========================
+	private static String metaKey(int id, String ownerEmail) {
+		return id + "|" + ownerEmail;
+	}
+
+	private static List<String[]> copy(List<String[]> rows) {
+		List<String[]> list = new ArrayList<>(rows.size());
+		for (String[] row : rows) list.add(row.clone());
+		return list;
+	}
 }
@@ -8,12 +8,17 @@ import java.util.List;
 
 public class UserDAO {
 
+    // Shared by every instance: services each create their own DAO. User rows are
+    // not cached: another process may change a password, and a cached hash or
+    // salt would keep accepting the old one.
+    private static final DaoCache<String, Boolean> ADMIN_EXISTS = new DaoCache<>("adminExists");
+
     // =========================
     // INSERT USER (REGISTER)
     // =========================
     public boolean insert(User user) {
-        String sql = "INSERT INTO users (FirstName, LastName, Email, Password, role, salt) " +
-                     "VALUES (?, ?, ?, ?, ?, ?)";
+        String sql = "INSERT INTO users (FirstName, LastName, Email, Password, role, salt, kdf_iterations) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?)";
 
         try (Connection conn = DbConnection.connect();
              PreparedStatement ps = conn.prepareStatement(sql)) {
@@ -26,8 +31,14 @@ public class UserDAO {
             
             
             ps.setString(6, user.getVaultSalt());
+            if (user.getKdfIterations() > 0) {
+                ps.setInt(7, user.getKdfIterations());
+            } else {
+                ps.setNull(7, Types.INTEGER);
+            }
 
             ps.executeUpdate();
+            if ("ADMIN".equals(user.getRole())) ADMIN_EXISTS.clear();
             return true;
 
         } catch (SQLException e) {
@@ -42,25 +53,33 @@ public class UserDAO {
     // CHECK ADMIN EXISTS
     // =========================
     public boolean adminExists() {
+        // Only "yes" is cached: admins are never removed, so it cannot go stale,
+        // while "no" may change in another process at any time
+        Boolean exists = ADMIN_EXISTS.get("", this::queryAdminExists);
+        return exists != null && exists;
+    }
+
+    private Boolean queryAdminExists() {
         String sql = "SELECT COUNT(*) FROM users WHERE role = 'ADMIN'";
-        try (Connection conn = DbConnection.connect();
+        try (Connection conn = DbConnection.connectForRead();
              Statement st = conn.createStatement();
              ResultSet rs = st.executeQuery(sql)) {
-            return rs.next() && rs.getInt(1) > 0;
+            return rs.next() && rs.getInt(1) > 0 ? Boolean.TRUE : null;
         } catch (SQLException e) {
-            return false;
+            return null;
         }
     }
 
     // =========================
     // FIND USER BY EMAIL (LOGIN) 
     // =========================
+    /** Always read from the database, so a password changed elsewhere takes effect at once. */
     public User findByEmail(String email) {
         // ✅ UPDATED SQL: Select 'salt' column
-        String sql = "SELECT FirstName, LastName, Email, Password, role, salt " +
+        String sql = "SELECT FirstName, LastName, Email, Password, role, salt, kdf_iterations " +
                      "FROM users WHERE Email = ?";
 
-        try (Connection conn = DbConnection.connect();
+        try (Connection conn = DbConnection.connectForRead();
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
             ps.setString(1, email);
@@ -68,7 +87,7 @@ public class UserDAO {
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
 
-                    return new User(
+                    User user = new User(
                         rs.getString("FirstName"),
                         rs.getString("LastName"),
                         rs.getString("Email"),
@@ -76,6 +95,8 @@ public class UserDAO {
                         rs.getString("role"),
                         rs.getString("salt") 
                     );
+                    user.setKdfIterations(rs.getInt("kdf_iterations")); // 0 when NULL
+                    return user;
                 }
             }
         } catch (SQLException e) {
@@ -84,21 +105,90 @@ public class UserDAO {
         return null;
     }
 
-    /*// =========================
+    // =========================
     // UPDATE PASSWORD
     // =========================
-    public int updatePasswordByEmail(String email, String newHashedPassword) {
-        String sql = "UPDATE users SET Password = ? WHERE Email = ?";
+    /**
+     * Stores a new password hash together with the new vault salt, its PBKDF2
+     * iteration count and the re-wrapped dedup key, on the caller's connection,
+     * so a password change runs it in one transaction with
+     * {@link FileDAO#updateWrappedKeys}. Only applies while the stored salt is
+     * still {@code oldSalt}; returns 0 if it has changed since the caller read
+     * it.
+     */
+    public int updatePasswordByEmail(Connection conn, String email, String oldSalt, String newHashedPassword,
+            String newSalt, int kdfIterations, String wrappedDedupKey) {
+        String sql = "UPDATE users SET Password = ?, salt = ?, kdf_iterations = ?, dedup_key = ? "
+                + "WHERE Email = ? AND salt IS ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, newHashedPassword);
+            ps.setString(2, newSalt);
+            ps.setInt(3, kdfIterations);
+            ps.setString(4, wrappedDedupKey);
+            ps.setString(5, email);
+            ps.setString(6, oldSalt);
+            return ps.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Password update failed");
+        }
+    }
+
+    /**
+     * Replaces only the BCrypt hash, e.g. a rehash at a higher cost for the
+     * same password. Only applies while the stored hash is still
+     * {@code oldHashedPassword}, so it cannot undo a password change made in
+     * the meantime; returns whether it applied.
+     */
+    public boolean updatePasswordHash(String email, String oldHashedPassword, String newHashedPassword) {
+        String sql = "UPDATE users SET Password = ? WHERE Email = ? AND Password = ?";
         try (Connection conn = DbConnection.connect();
              PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setString(1, newHashedPassword);
             ps.setString(2, email);
-            return ps.executeUpdate();
+            ps.setString(3, oldHashedPassword);
+            return ps.executeUpdate() > 0;
         } catch (SQLException e) {
-            e.printStackTrace();
             throw new RuntimeException("Password update failed");
         }
-    }*/
+    }
+
+    // =========================
+    // DEDUP KEY
+    // =========================
+    /** The user's dedup key wrapped under the vault key, or null if not set yet. */
+    public String findDedupKey(String email) {
+        try (Connection conn = DbConnection.connectForRead()) {
+            return findDedupKey(conn, email);
+        } catch (SQLException e) {
+            throw new RuntimeException("Dedup key lookup failed");
+        }
+    }
+
+    /** Same, on the caller's connection, e.g. inside the transaction that re-wraps it. */
+    public String findDedupKey(Connection conn, String email) {
+        String sql = "SELECT dedup_key FROM users WHERE Email = ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, email);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString("dedup_key") : null;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Dedup key lookup failed");
+        }
+    }
+
+    public void updateDedupKey(String email, String wrappedDedupKey) {
+        String sql = "UPDATE users SET dedup_key = ? WHERE Email = ?";
+        try (Connection conn = DbConnection.connect();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, wrappedDedupKey);
+            ps.setString(2, email);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Dedup key update failed");
+        }
+    }
 
     // =========================
     // LOAD ALL USERS (ADMIN VIEW)
@@ -107,7 +197,7 @@ public class UserDAO {
         List<User> list = new ArrayList<>();
         String sql = "SELECT FirstName, LastName, Email, role FROM users";
 
-        try (Connection conn = DbConnection.connect();
+        try (Connection conn = DbConnection.connectForRead();
              Statement st = conn.createStatement();
              ResultSet rs = st.executeQuery(sql)) {
 
@@ -137,7 +227,9 @@ public class UserDAO {
         try (Connection conn = DbConnection.connect();
              PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setString(1, email);
-            return ps.executeUpdate();
+            int deleted = ps.executeUpdate();
+            ADMIN_EXISTS.clear();
+            return deleted;
         } catch (SQLException e) {
             throw new RuntimeException("Delete failed");
         }
@@ -0,0 +1,111 @@
+package dao;
+
+import db.DbConnection;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persistent list of plaintext originals still waiting to be wiped, so a
+ * restart resumes them instead of leaving the files on disk.
+ */
+public class WipeQueueDAO {
+
+	/**
+	 * A queued original and what it looked like when queued: size, modification
+	 * time in epoch millis and file system key (null where the platform has
+	 * none). {@code started} is set once overwriting has begun.
+	 */
+	public record Entry(String path, String ownerEmail, long size, long modifiedMillis, String fileKey,
+			boolean started) {
+	}
+
+	// =========================
+	// ENQUEUE
+	// =========================
+	public void addAll(List<Entry> entries) {
+
+		String sql = "INSERT OR REPLACE INTO wipe_queue (path, owner_email, queued_epoch, size, modified_millis, file_key) "
+				+ "VALUES (?, ?, CAST(strftime('%s','now') AS INTEGER), ?, ?, ?)";
+
+		try (Connection conn = DbConnection.connect(); PreparedStatement ps = conn.prepareStatement(sql)) {
+
+			conn.setAutoCommit(false);
+			try {
+				for (Entry e : entries) {
+					ps.setString(1, e.path());
+					ps.setString(2, e.ownerEmail());
+					ps.setLong(3, e.size());
+					ps.setLong(4, e.modifiedMillis());
+					ps.setString(5, e.fileKey());
+					ps.addBatch();
+				}
+				ps.executeBatch();
+				conn.commit();
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(true);
+			}
+
+		} catch (SQLException e) {
+			throw new RuntimeException("Wipe queue update failed", e);
+		}
+	}
+
+	/** Records that overwriting {@code path} is about to begin. */
+	public void markStarted(String path) {
+
+		String sql = "UPDATE wipe_queue SET wipe_started = 1 WHERE path = ?";
+
+		try (Connection conn = DbConnection.connect(); PreparedStatement ps = conn.prepareStatement(sql)) {
+			ps.setString(1, path);
+			ps.executeUpdate();
+		} catch (SQLException e) {
+			throw new RuntimeException("Wipe queue update failed", e);
+		}
+	}
+
+	// =========================
+	// DEQUEUE
+	// =========================
+	public void remove(String path) {
+
+		String sql = "DELETE FROM wipe_queue WHERE path = ?";
+
+		try (Connection conn = DbConnection.connect(); PreparedStatement ps = conn.prepareStatement(sql)) {
+			ps.setString(1, path);
+			ps.executeUpdate();
+		} catch (SQLException e) {
+			throw new RuntimeException("Wipe queue update failed", e);
+		}
+	}
+
+	// =========================
+	// PENDING
+	// =========================
+	/** Pending wipes, oldest first. */
+	public List<Entry> findAll() {
+
+		List<Entry> list = new ArrayList<>();
+		String sql = "SELECT path, owner_email, size, modified_millis, file_key, wipe_started FROM wipe_queue "
+				+ "ORDER BY queued_epoch, rowid";
+
+		try (Connection conn = DbConnection.connectForRead();
+				Statement st = conn.createStatement();
+				ResultSet rs = st.executeQuery(sql)) {
+
+			while (rs.next()) {
+				list.add(new Entry(rs.getString("path"), rs.getString("owner_email"), rs.getLong("size"),
+						rs.getLong("modified_millis"), rs.getString("file_key"), rs.getInt("wipe_started") != 0));
+			}
+
+		} catch (SQLException e) {
+			throw new RuntimeException("Wipe queue load failed", e);
+		}
+
+		return list;
+	}
+}
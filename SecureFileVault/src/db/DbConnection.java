@@ -1,20 +1,322 @@
 package db;
 
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.Timer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Small SQLite connection pool: one long-lived writer connection and up to
+ * {@link #READERS} reader connections, all in WAL mode so reads never wait
+ * behind a write. Connections handed out are wrappers; {@code close()}
+ * returns them to the pool, and {@code prepareStatement(sql)} is served from
+ * a per-connection statement cache.
+ * <p>
+ * Every borrow is measured: the wait for a connection ({@code db.acquire.*})
+ * and how long the borrowing DAO method holds it, under the method's name
+ * (e.g. {@code dao.FileDAO.insertFiles}).
+ */
 public class DbConnection {
 
+	private static final int READERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+	private static final int STATEMENT_CACHE_SIZE = 32;
+
+	private static final ReentrantLock writerLock = new ReentrantLock(true);
+	private static PooledConnection writer;
+
+	private static final Semaphore readerPermits = new Semaphore(READERS, true);
+	private static final ConcurrentLinkedQueue<PooledConnection> idleReaders = new ConcurrentLinkedQueue<>();
+
+	// Never writes, so its data_version moves on every commit; guarded by DbConnection.class
+	private static PooledConnection versionReader;
+	private static PreparedStatement versionQuery;
+
+	private static final Timer WRITER_ACQUIRE = Metrics.timer("db.acquire.writer");
+	private static final Timer READER_ACQUIRE = Metrics.timer("db.acquire.reader");
+	private static final Counter CONNECT_FAILURES = Metrics.counter("db.connect.failures");
+	private static final Counter WRITERS_OPENED = Metrics.counter("db.connect.writer");
+	private static final Counter READERS_OPENED = Metrics.counter("db.connect.reader");
+	private static final StackWalker CALLERS = StackWalker.getInstance();
+	private static final Map<String, Timer> CALL_TIMERS = new ConcurrentHashMap<>();
+
+	static {
+		Metrics.gauge("db.readers.busy", () -> READERS - readerPermits.availablePermits());
+		Metrics.gauge("db.writer.waiting", writerLock::getQueueLength);
+	}
+
+	/**
+	 * Borrows the writer connection. Only one thread holds it at a time; the
+	 * same thread may borrow it again while holding it (nested DAO calls).
+	 */
 	public static Connection connect() {
-		Connection conn = null;
+		long start = System.nanoTime();
 		try {
-			String dbPath = System.getProperty("user.dir") + "/src/encrypted_files/JavaDatabaseTutorial.db"; 
-	        String url = "jdbc:sqlite:" + dbPath;
-			conn = DriverManager.getConnection(url);
-			System.out.println("Connected to SQLite.");
+			writerLock.lockInterruptibly();
+			try {
+				if (writer == null || writer.raw.isClosed()) {
+					writer = open(false);
+				}
+				PooledConnection borrowed = writer;
+				long acquired = System.nanoTime();
+				WRITER_ACQUIRE.record(acquired - start);
+				Timer call = callTimer();
+				return borrowed.handle(() -> {
+					call.record(System.nanoTime() - acquired);
+					releaseWriter(borrowed);
+				});
+			} catch (Exception e) {
+				writerLock.unlock();
+				throw e;
+			}
 		} catch (Exception e) {
+			CONNECT_FAILURES.increment();
 			e.printStackTrace(); // IMPORTANT for debugging
+			return null;
+		}
+	}
+
+	/**
+	 * Borrows a read-only connection. Readers see the last committed state and
+	 * are not blocked by a writer in progress.
+	 */
+	public static Connection connectForRead() {
+		long start = System.nanoTime();
+		try {
+			readerPermits.acquire();
+			try {
+				PooledConnection reader = idleReaders.poll();
+				if (reader == null || reader.raw.isClosed()) {
+					reader = open(true);
+				}
+				PooledConnection borrowed = reader;
+				long acquired = System.nanoTime();
+				READER_ACQUIRE.record(acquired - start);
+				Timer call = callTimer();
+				return borrowed.handle(() -> {
+					call.record(System.nanoTime() - acquired);
+					releaseReader(borrowed);
+				});
+			} catch (Exception e) {
+				readerPermits.release();
+				throw e;
+			}
+		} catch (Exception e) {
+			CONNECT_FAILURES.increment();
+			e.printStackTrace(); // IMPORTANT for debugging
+			return null;
+		}
+	}
+
+	/**
+	 * A number that changes whenever the database is committed to, by this
+	 * process or any other (e.g. the CLI or the API server next to the UI).
+	 * Only equality is meaningful; -1 if it cannot be read.
+	 */
+	public static synchronized long dataVersion() {
+		try {
+			if (versionReader == null || versionReader.raw.isClosed()) {
+				versionReader = open(true);
+				versionQuery = versionReader.raw.prepareStatement("PRAGMA data_version");
+			}
+			try (ResultSet rs = versionQuery.executeQuery()) {
+				return rs.next() ? rs.getLong(1) : -1;
+			}
+		} catch (SQLException e) {
+			if (versionReader != null) versionReader.closeQuietly();
+			versionReader = null;
+			return -1;
+		}
+	}
+
+	/**
+	 * Closes every pooled connection. Used on application shutdown.
+	 */
+	public static void shutdown() {
+		writerLock.lock();
+		try {
+			if (writer != null) writer.closeQuietly();
+			writer = null;
+		} finally {
+			writerLock.unlock();
+		}
+		PooledConnection reader;
+		while ((reader = idleReaders.poll()) != null) reader.closeQuietly();
+		synchronized (DbConnection.class) {
+			if (versionReader != null) {
+				try {
+					versionQuery.close();
+				} catch (SQLException ignored) {
+				}
+				versionReader.closeQuietly();
+			}
+			versionReader = null;
+		}
+	}
+
+	private static PooledConnection open(boolean readOnly) throws SQLException {
+		// -Dvault.db points at another database file, e.g. a scratch copy for benchmarks
+		String dbPath = System.getProperty("vault.db",
+				System.getProperty("user.dir") + "/src/encrypted_files/JavaDatabaseTutorial.db");
+		String url = "jdbc:sqlite:" + dbPath;
+		Connection conn = DriverManager.getConnection(url);
+		try (Statement st = conn.createStatement()) {
+			st.execute("PRAGMA busy_timeout = 5000");
+			if (!readOnly) {
+				st.execute("PRAGMA journal_mode = WAL");
+			}
+			st.execute("PRAGMA synchronous = NORMAL");
+			st.execute("PRAGMA cache_size = -16000"); // ~16 MB page cache
+			st.execute("PRAGMA mmap_size = 268435456"); // 256 MB
+			st.execute("PRAGMA temp_store = MEMORY");
+			if (readOnly) {
+				st.execute("PRAGMA query_only = ON");
+			}
+		}
+		(readOnly ? READERS_OPENED : WRITERS_OPENED).increment();
+		return new PooledConnection(conn);
+	}
+
+	/** Timer for the method borrowing a connection: the first caller outside this class. */
+	private static Timer callTimer() {
+		String caller = CALLERS.walk(frames -> frames
+				.filter(f -> !f.getClassName().equals("db.DbConnection"))
+				.findFirst()
+				.map(f -> f.getClassName() + "." + f.getMethodName())
+				.orElse("unknown"));
+		return CALL_TIMERS.computeIfAbsent(caller, Metrics::timer);
+	}
+
+	private static void releaseWriter(PooledConnection conn) {
+		try {
+			// Outermost release: never hand the next borrower an open transaction
+			if (writerLock.getHoldCount() == 1 && !conn.raw.getAutoCommit()) {
+				conn.raw.rollback();
+				conn.raw.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			conn.closeQuietly();
+		} finally {
+			writerLock.unlock();
+		}
+	}
+
+	private static void releaseReader(PooledConnection conn) {
+		idleReaders.offer(conn);
+		readerPermits.release();
+	}
+
+	// =========================
+	// POOLED CONNECTION
+	// =========================
+	private static final class PooledConnection {
+		private final Connection raw;
+		private final Map<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() <= STATEMENT_CACHE_SIZE) return false;
+				try {
+					eldest.getValue().close();
+				} catch (SQLException ignored) {
+				}
+				return true;
+			}
+		};
+
+		PooledConnection(Connection raw) {
+			this.raw = raw;
+		}
+
+		/** Wraps the physical connection so that close() runs {@code onClose} once. */
+		Connection handle(Runnable onClose) {
+			boolean[] closed = { false };
+			InvocationHandler h = (proxy, method, args) -> {
+				if (method.getDeclaringClass() == Object.class) return invoke(raw, method, args);
+				switch (method.getName()) {
+				case "close":
+					if (!closed[0]) {
+						closed[0] = true;
+						onClose.run();
+					}
+					return null;
+				case "isClosed":
+					return closed[0] || raw.isClosed();
+				case "prepareStatement":
+					if (closed[0]) throw new SQLException("Connection returned to pool");
+					if (args.length == 1) return cachedStatement((String) args[0]);
+					break;
+				default:
+					if (closed[0]) throw new SQLException("Connection returned to pool");
+				}
+				return invoke(raw, method, args);
+			};
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, h);
+		}
+
+		/**
+		 * Returns a cached statement. Its close() only resets parameters and closes
+		 * the last result set, so the compiled statement is reused next time.
+		 */
+		private PreparedStatement cachedStatement(String sql) throws SQLException {
+			PreparedStatement ps = statements.get(sql);
+			if (ps == null || ps.isClosed()) {
+				ps = raw.prepareStatement(sql);
+				statements.put(sql, ps);
+			}
+			PreparedStatement target = ps;
+			ResultSet[] lastResult = { null };
+			InvocationHandler h = (proxy, method, args) -> {
+				switch (method.getName()) {
+				case "close":
+					if (lastResult[0] != null) lastResult[0].close();
+					target.clearParameters();
+					target.clearBatch();
+					return null;
+				case "executeQuery":
+					if (args == null) {
+						lastResult[0] = target.executeQuery();
+						return lastResult[0];
+					}
+					break;
+				default:
+				}
+				return invoke(target, method, args);
+			};
+			return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+					new Class<?>[] { PreparedStatement.class }, h);
+		}
+
+		void closeQuietly() {
+			try {
+				for (PreparedStatement ps : statements.values()) ps.close();
+				statements.clear();
+				raw.close();
+			} catch (SQLException ignored) {
+			}
+		}
+
+		private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
 		}
-		return conn;
 	}
 }
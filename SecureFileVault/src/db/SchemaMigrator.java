@@ -0,0 +1,275 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Versioned schema migrations, applied once at startup. The schema version is
+ * kept in SQLite's {@code PRAGMA user_version}; every migration above it runs
+ * in its own transaction together with the version bump. Migrations are
+ * written to be idempotent as well, so a half-migrated database (or one
+ * changed by hand) converges to the same schema.
+ */
+public class SchemaMigrator {
+
+	@FunctionalInterface
+	interface Step {
+		void apply(Statement st) throws SQLException;
+	}
+
+	record Migration(int version, String description, Step step) {
+	}
+
+	private static final List<Migration> MIGRATIONS = List.of(
+			new Migration(1, "baseline schema", SchemaMigrator::baseline),
+			new Migration(2, "integer epoch timestamps", SchemaMigrator::epochColumns),
+			new Migration(3, "indexes for file list and audit queries", SchemaMigrator::indexes),
+			new Migration(4, "reference-counted content blobs", SchemaMigrator::blobs),
+			new Migration(5, "wrapped per-file data keys", SchemaMigrator::envelopeKeys),
+			new Migration(6, "persistent secure-wipe queue", SchemaMigrator::wipeQueue),
+			new Migration(7, "per-user KDF cost", SchemaMigrator::kdfCost),
+			new Migration(8, "file name search index", SchemaMigrator::fileSearch));
+
+	/**
+	 * Brings the database up to the latest schema version. Throws if a migration
+	 * fails; the failed migration is rolled back and later ones are not run.
+	 */
+	public static void migrate() {
+		try (Connection conn = DbConnection.connect(); Statement st = conn.createStatement()) {
+			int current = userVersion(st);
+			for (Migration m : MIGRATIONS) {
+				if (m.version() <= current) continue;
+				conn.setAutoCommit(false);
+				try {
+					m.step().apply(st);
+					st.execute("PRAGMA user_version = " + m.version());
+					conn.commit();
+					System.out.println("Schema migrated to v" + m.version() + " (" + m.description() + ")");
+				} catch (SQLException e) {
+					conn.rollback();
+					throw e;
+				} finally {
+					conn.setAutoCommit(true);
+				}
+			}
+		} catch (Exception e) {
+			throw new RuntimeException("Schema migration failed: " + e.getMessage(), e);
+		}
+	}
+
+	public static int latestVersion() {
+		return MIGRATIONS.get(MIGRATIONS.size() - 1).version();
+	}
+
+	// =========================
+	// V1: BASELINE
+	// =========================
+	private static void baseline(Statement st) throws SQLException {
+		st.execute("CREATE TABLE IF NOT EXISTS users ("
+				+ " FirstName TEXT NOT NULL,"
+				+ " LastName  TEXT NOT NULL,"
+				+ " Email     TEXT NOT NULL UNIQUE,"
+				+ " Password  TEXT NOT NULL,"
+				+ " role TEXT NOT NULL DEFAULT 'USER',"
+				+ " salt TEXT)");
+		st.execute("CREATE TABLE IF NOT EXISTS files ("
+				+ " id INTEGER PRIMARY KEY AUTOINCREMENT,"
+				+ " owner_email TEXT NOT NULL,"
+				+ " original_name TEXT NOT NULL,"
+				+ " encrypted_path TEXT NOT NULL,"
+				+ " iv TEXT NOT NULL,"
+				+ " uploaded_at DATETIME DEFAULT CURRENT_TIMESTAMP)");
+		st.execute("CREATE TABLE IF NOT EXISTS audit_log ("
+				+ " id INTEGER PRIMARY KEY AUTOINCREMENT,"
+				+ " action TEXT NOT NULL,"
+				+ " target_email TEXT NOT NULL,"
+				+ " performed_by TEXT NOT NULL,"
+				+ " timestamp DATETIME DEFAULT CURRENT_TIMESTAMP)");
+		st.execute("CREATE TRIGGER IF NOT EXISTS lock_audit_log_update BEFORE UPDATE ON audit_log BEGIN"
+				+ " SELECT RAISE(FAIL, 'Audit log modification is prohibited: data is locked.'); END");
+		st.execute("CREATE TRIGGER IF NOT EXISTS lock_audit_log_delete BEFORE DELETE ON audit_log BEGIN"
+				+ " SELECT RAISE(FAIL, 'Deleting the audit log is prohibited: the data is locked.'); END");
+	}
+
+	// =========================
+	// V2: EPOCH TIMESTAMPS
+	// =========================
+	/**
+	 * Adds integer epoch-second columns next to the text timestamps, which
+	 * stay for display. Existing text values are local time, hence 'utc'.
+	 */
+	private static void epochColumns(Statement st) throws SQLException {
+		if (!hasColumn(st, "files", "uploaded_epoch")) {
+			st.execute("ALTER TABLE files ADD COLUMN uploaded_epoch INTEGER");
+		}
+		st.execute("UPDATE files SET uploaded_epoch = CAST(strftime('%s', uploaded_at, 'utc') AS INTEGER)"
+				+ " WHERE uploaded_epoch IS NULL");
+
+		if (!hasColumn(st, "audit_log", "ts_epoch")) {
+			st.execute("ALTER TABLE audit_log ADD COLUMN ts_epoch INTEGER");
+		}
+		// The audit log is write-once; lift the lock only for the backfill, inside this transaction
+		st.execute("DROP TRIGGER IF EXISTS lock_audit_log_update");
+		st.execute("UPDATE audit_log SET ts_epoch = CAST(strftime('%s', timestamp, 'utc') AS INTEGER)"
+				+ " WHERE ts_epoch IS NULL");
+		st.execute("CREATE TRIGGER lock_audit_log_update BEFORE UPDATE ON audit_log BEGIN"
+				+ " SELECT RAISE(FAIL, 'Audit log modification is prohibited: data is locked.'); END");
+
+		// Rows written by the users triggers need the epoch column too
+		st.execute("DROP TRIGGER IF EXISTS audit_update_users");
+		st.execute("CREATE TRIGGER audit_update_users AFTER UPDATE ON users BEGIN"
+				+ " INSERT INTO audit_log (action, target_email, performed_by, timestamp, ts_epoch)"
+				+ " VALUES ('UPDATE_DATA', OLD.email, 'DB_INTERNAL_TRIGGER', datetime('now','localtime'),"
+				+ " CAST(strftime('%s','now') AS INTEGER)); END");
+		st.execute("DROP TRIGGER IF EXISTS audit_delete_users");
+		st.execute("CREATE TRIGGER audit_delete_users AFTER DELETE ON users BEGIN"
+				+ " INSERT INTO audit_log (action, target_email, performed_by, timestamp, ts_epoch)"
+				+ " VALUES ('DELETE_DATA', OLD.email, 'DB_INTERNAL_TRIGGER', datetime('now','localtime'),"
+				+ " CAST(strftime('%s','now') AS INTEGER)); END");
+	}
+
+	// =========================
+	// V3: INDEXES
+	// =========================
+	private static void indexes(Statement st) throws SQLException {
+		// Covering index for FileDAO.findFilesByOwner: filter, order and all selected columns
+		st.execute("CREATE INDEX IF NOT EXISTS idx_files_owner_epoch"
+				+ " ON files(owner_email, uploaded_epoch, id, original_name, uploaded_at)");
+
+		// Superseded text-timestamp indexes created lazily by older builds
+		st.execute("DROP INDEX IF EXISTS idx_audit_ts");
+		st.execute("DROP INDEX IF EXISTS idx_audit_user_ts");
+		st.execute("DROP INDEX IF EXISTS idx_audit_action_ts");
+
+		// AuditLogDAO keyset pages: (ts_epoch, id) order, optionally narrowed by user or action
+		st.execute("CREATE INDEX IF NOT EXISTS idx_audit_epoch ON audit_log(ts_epoch, id)");
+		st.execute("CREATE INDEX IF NOT EXISTS idx_audit_user_epoch ON audit_log(performed_by, ts_epoch, id)");
+		st.execute("CREATE INDEX IF NOT EXISTS idx_audit_action_epoch ON audit_log(action, ts_epoch, id)");
+	}
+
+	// =========================
+	// V4: CONTENT BLOBS
+	// =========================
+	/**
+	 * One row per stored ciphertext file, shared by every {@code files} entry
+	 * with the same owner and content hash. Existing blobs have no hash, so they
+	 * are never matched, but get a reference count like the rest.
+	 */
+	private static void blobs(Statement st) throws SQLException {
+		st.execute("CREATE TABLE IF NOT EXISTS blobs ("
+				+ " encrypted_path TEXT PRIMARY KEY,"
+				+ " owner_email TEXT NOT NULL,"
+				+ " content_hash TEXT,"
+				+ " iv TEXT NOT NULL,"
+				+ " ref_count INTEGER NOT NULL)");
+		st.execute("CREATE UNIQUE INDEX IF NOT EXISTS idx_blobs_owner_hash ON blobs(owner_email, content_hash)");
+		st.execute("INSERT OR IGNORE INTO blobs (encrypted_path, owner_email, iv, ref_count)"
+				+ " SELECT encrypted_path, MIN(owner_email), MIN(iv), COUNT(*) FROM files GROUP BY encrypted_path");
+	}
+
+	// =========================
+	// V5: ENVELOPE KEYS
+	// =========================
+	/**
+	 * Per-file data keys wrapped under the vault key, and the user's dedup key
+	 * wrapped the same way so content hashes survive a password change. Both
+	 * stay null for existing rows until the owner next changes the password
+	 * or logs in.
+	 */
+	private static void envelopeKeys(Statement st) throws SQLException {
+		if (!hasColumn(st, "files", "wrapped_key")) {
+			st.execute("ALTER TABLE files ADD COLUMN wrapped_key TEXT");
+		}
+		if (!hasColumn(st, "users", "dedup_key")) {
+			st.execute("ALTER TABLE users ADD COLUMN dedup_key TEXT");
+		}
+	}
+
+	// =========================
+	// V6: WIPE QUEUE
+	// =========================
+	/**
+	 * Size, modification time (epoch millis) and file system key of each queued
+	 * original when it was queued, so a file replaced at the same path before
+	 * the wipe runs is left alone. {@code wipe_started} is set before the first
+	 * overwrite, which changes the modification time but neither the size nor
+	 * the key.
+	 */
+	private static void wipeQueue(Statement st) throws SQLException {
+		st.execute("CREATE TABLE IF NOT EXISTS wipe_queue ("
+				+ " path TEXT PRIMARY KEY,"
+				+ " owner_email TEXT NOT NULL,"
+				+ " queued_epoch INTEGER NOT NULL,"
+				+ " size INTEGER NOT NULL,"
+				+ " modified_millis INTEGER NOT NULL,"
+				+ " file_key TEXT,"
+				+ " wipe_started INTEGER NOT NULL DEFAULT 0)");
+	}
+
+	// =========================
+	// V7: KDF COST
+	// =========================
+	/**
+	 * PBKDF2 iterations used for the user's vault key. Null for existing users,
+	 * who keep the old fixed count until their next login upgrades them.
+	 */
+	private static void kdfCost(Statement st) throws SQLException {
+		if (!hasColumn(st, "users", "kdf_iterations")) {
+			st.execute("ALTER TABLE users ADD COLUMN kdf_iterations INTEGER");
+		}
+	}
+
+	// =========================
+	// V8: FILE NAME SEARCH
+	// =========================
+	/**
+	 * Full-text index over file names for FileDAO.searchFiles, with prefix
+	 * indexes for search-as-you-type. It stores no copy of the names, only the
+	 * index, and triggers keep it in step with {@code files}. The owner is an
+	 * unindexed column, so a search filters on it inside the index query. A
+	 * SQLite build without FTS5 skips the index; searches then scan instead.
+	 */
+	private static void fileSearch(Statement st) throws SQLException {
+		try {
+			st.execute("CREATE VIRTUAL TABLE IF NOT EXISTS files_fts USING fts5(original_name, owner_email UNINDEXED,"
+					+ " content='files', content_rowid='id',"
+					+ " tokenize='unicode61 remove_diacritics 2', prefix='1 2 3')");
+		} catch (SQLException e) {
+			System.err.println("FTS5 unavailable, file search will not be indexed: " + e.getMessage());
+			return;
+		}
+		st.execute("CREATE TRIGGER IF NOT EXISTS files_fts_insert AFTER INSERT ON files BEGIN"
+				+ " INSERT INTO files_fts (rowid, original_name, owner_email)"
+				+ " VALUES (NEW.id, NEW.original_name, NEW.owner_email); END");
+		st.execute("CREATE TRIGGER IF NOT EXISTS files_fts_delete AFTER DELETE ON files BEGIN"
+				+ " INSERT INTO files_fts (files_fts, rowid, original_name, owner_email)"
+				+ " VALUES ('delete', OLD.id, OLD.original_name, OLD.owner_email); END");
+		st.execute("CREATE TRIGGER IF NOT EXISTS files_fts_update AFTER UPDATE OF original_name, owner_email ON files BEGIN"
+				+ " INSERT INTO files_fts (files_fts, rowid, original_name, owner_email)"
+				+ " VALUES ('delete', OLD.id, OLD.original_name, OLD.owner_email);"
+				+ " INSERT INTO files_fts (rowid, original_name, owner_email)"
+				+ " VALUES (NEW.id, NEW.original_name, NEW.owner_email); END");
+		st.execute("INSERT INTO files_fts (files_fts) VALUES ('rebuild')");
+	}
+
+	// =========================
+	// HELPERS
+	// =========================
+	private static int userVersion(Statement st) throws SQLException {
+		try (ResultSet rs = st.executeQuery("PRAGMA user_version")) {
+			return rs.next() ? rs.getInt(1) : 0;
+		}
+	}
+
+	static boolean hasColumn(Statement st, String table, String column) throws SQLException {
+		try (ResultSet rs = st.executeQuery("PRAGMA table_info(" + table + ")")) {
+			while (rs.next()) {
+				if (column.equalsIgnoreCase(rs.getString("name"))) return true;
+			}
+		}
+		return false;
+	}
+}
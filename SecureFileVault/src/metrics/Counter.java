@@ -0,0 +1,30 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** A monotonically increasing count, e.g. failures or dropped events. */
+public final class Counter implements CounterMXBean {
+
+	private final LongAdder count = new LongAdder();
+
+	Counter() {
+	}
+
+	public void increment() {
+		count.increment();
+	}
+
+	public void add(long n) {
+		count.add(n);
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public void reset() {
+		count.reset();
+	}
+}
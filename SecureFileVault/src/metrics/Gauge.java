@@ -0,0 +1,18 @@
+package metrics;
+
+import java.util.function.LongSupplier;
+
+/** A value read on demand, e.g. a queue depth. Costs nothing until it is read. */
+public final class Gauge implements GaugeMXBean {
+
+	private final LongSupplier value;
+
+	Gauge(LongSupplier value) {
+		this.value = value;
+	}
+
+	@Override
+	public long getValue() {
+		return value.getAsLong();
+	}
+}
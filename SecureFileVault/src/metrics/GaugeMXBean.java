@@ -0,0 +1,7 @@
+package metrics;
+
+/** JMX view of a {@link Gauge}. */
+public interface GaugeMXBean {
+
+	long getValue();
+}
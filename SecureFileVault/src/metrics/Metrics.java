@@ -0,0 +1,85 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+import java.util.function.LongSupplier;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide registry of named counters, timers and gauges. Each metric is
+ * created on first use and registered as an MXBean under
+ * {@code SecureFileVault:type=<Counter|Timer|Gauge>,name=<name>}, so it can be
+ * read with JConsole or any JMX client, and is listed in the diagnostics panel.
+ * Updating a metric is a few uncontended atomic adds; look metrics up once and
+ * keep them in a static field on hot paths.
+ */
+public final class Metrics {
+
+	public static final String DOMAIN = "SecureFileVault";
+
+	private static final Map<String, Object> METRICS = new ConcurrentSkipListMap<>();
+
+	private Metrics() {
+	}
+
+	public static Counter counter(String name) {
+		return register(name, "Counter", Counter.class, Counter::new);
+	}
+
+	public static Timer timer(String name) {
+		return register(name, "Timer", Timer.class, Timer::new);
+	}
+
+	/** Registers a gauge read from {@code value}; a second registration under the same name is ignored. */
+	public static Gauge gauge(String name, LongSupplier value) {
+		return register(name, "Gauge", Gauge.class, () -> new Gauge(value));
+	}
+
+	/** All metrics, sorted by name. */
+	public static List<Map.Entry<String, Object>> all() {
+		return new ArrayList<>(METRICS.entrySet());
+	}
+
+	/** Clears every counter and timer; gauges are live values and are not affected. */
+	public static void resetAll() {
+		for (Object metric : METRICS.values()) {
+			if (metric instanceof Counter c) c.reset();
+			if (metric instanceof Timer t) t.reset();
+		}
+	}
+
+	private static <T> T register(String name, String type, Class<T> cls, Supplier<T> factory) {
+		Object existing = METRICS.get(name);
+		if (existing == null) {
+			synchronized (Metrics.class) {
+				existing = METRICS.get(name);
+				if (existing == null) {
+					existing = factory.get();
+					METRICS.put(name, existing);
+					expose(name, type, existing);
+				}
+			}
+		}
+		if (!cls.isInstance(existing)) {
+			throw new IllegalArgumentException("Metric " + name + " is a " + existing.getClass().getSimpleName());
+		}
+		return cls.cast(existing);
+	}
+
+	private static void expose(String name, String type, Object metric) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName id = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+			if (!server.isRegistered(id)) server.registerMBean(metric, id);
+		} catch (Exception e) {
+			// Metrics still work in-process without JMX
+			System.err.println("Could not register metric " + name + ": " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram for one operation, optionally with the bytes it processed.
+ * Durations are counted in log-linear buckets (8 per power of two), so
+ * percentiles are accurate to about 6% with a fixed 4 KB of state and no
+ * locking.
+ * <pre>
+ * long start = System.nanoTime();
+ * ...
+ * TIMER.record(System.nanoTime() - start, bytes);
+ * </pre>
+ */
+public final class Timer implements TimerMXBean {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+	Timer() {
+	}
+
+	public void record(long nanos) {
+		record(nanos, 0);
+	}
+
+	public void record(long nanos, long byteCount) {
+		if (nanos < 0) nanos = 0;
+		buckets.incrementAndGet(bucket(nanos));
+		count.increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+		if (byteCount > 0) bytes.add(byteCount);
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public double getMeanMillis() {
+		long n = count.sum();
+		return n == 0 ? 0 : totalNanos.sum() / (double) n / 1e6;
+	}
+
+	@Override
+	public double getMaxMillis() {
+		return maxNanos.get() / 1e6;
+	}
+
+	@Override
+	public double getP50Millis() {
+		return percentile(0.50);
+	}
+
+	@Override
+	public double getP95Millis() {
+		return percentile(0.95);
+	}
+
+	@Override
+	public double getP99Millis() {
+		return percentile(0.99);
+	}
+
+	@Override
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	@Override
+	public double getBytesPerSecond() {
+		long nanos = totalNanos.sum();
+		return nanos == 0 ? 0 : bytes.sum() * 1e9 / nanos;
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) buckets.set(i, 0);
+		count.reset();
+		totalNanos.reset();
+		bytes.reset();
+		maxNanos.reset();
+	}
+
+	/** Upper estimate of the {@code q} quantile, in milliseconds. */
+	public double percentile(double q) {
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = buckets.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) return 0;
+		long rank = (long) Math.ceil(q * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) return Math.min(midpoint(i), maxNanos.get()) / 1e6;
+		}
+		return maxNanos.get() / 1e6;
+	}
+
+	// =========================
+	// BUCKETS
+	// =========================
+	// Values below 8 ns get a bucket each; above that, each power of two is
+	// split into 8 equal sub-buckets.
+	static int bucket(long nanos) {
+		if (nanos < SUB_BUCKETS) return (int) nanos;
+		int exp = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int) (nanos >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	static long midpoint(int bucket) {
+		if (bucket < SUB_BUCKETS) return bucket;
+		int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		int sub = bucket % SUB_BUCKETS;
+		long width = 1L << (exp - SUB_BITS);
+		return ((long) (SUB_BUCKETS + sub) << (exp - SUB_BITS)) + width / 2;
+	}
+}
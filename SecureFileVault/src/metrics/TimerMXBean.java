@@ -0,0 +1,25 @@
+package metrics;
+
+/** JMX view of a {@link Timer}. Times are in milliseconds. */
+public interface TimerMXBean {
+
+	long getCount();
+
+	double getMeanMillis();
+
+	double getMaxMillis();
+
+	double getP50Millis();
+
+	double getP95Millis();
+
+	double getP99Millis();
+
+	/** Bytes processed by the timed operations, 0 if they do not report any. */
+	long getBytes();
+
+	/** {@link #getBytes()} divided by the total time spent in the operations. */
+	double getBytesPerSecond();
+
+	void reset();
+}
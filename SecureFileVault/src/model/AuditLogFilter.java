@@ -0,0 +1,36 @@
+package model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Optional criteria for audit log queries. Any field left null is not filtered on.
+ * The time range is half-open: {@code from <= timestamp < to}.
+ */
+public class AuditLogFilter {
+
+    private final String action;
+    private final String performedBy;
+    private final LocalDateTime from;
+    private final LocalDateTime to;
+
+    public AuditLogFilter(String action, String performedBy, LocalDateTime from, LocalDateTime to) {
+        this.action = blankToNull(action);
+        this.performedBy = blankToNull(performedBy);
+        this.from = from;
+        this.to = to;
+    }
+
+    public static AuditLogFilter none() {
+        return new AuditLogFilter(null, null, null, null);
+    }
+
+    // ===== GETTERS =====
+    public String getAction() { return action; }
+    public String getPerformedBy() { return performedBy; }
+    public LocalDateTime getFrom() { return from; }
+    public LocalDateTime getTo() { return to; }
+
+    private static String blankToNull(String s) {
+        return s == null || s.isBlank() ? null : s.trim();
+    }
+}
@@ -8,6 +8,7 @@ public class User {
     private String password;
     private String role;
     private String vaultSalt; 
+    private int kdfIterations; // 0: not stored, the account predates per-user costs
 
     // Runtime-only password (not stored in DB, just in memory)
     private transient char[] sessionPassword;
@@ -30,6 +31,7 @@ public class User {
 
     // ✅ NEW Getter for Salt
     public String getVaultSalt() { return vaultSalt; }
+    public int getKdfIterations() { return kdfIterations; }
 
     // ===== SESSION PASSWORD =====
     public void setSessionPassword(char[] sessionPassword) {
@@ -43,4 +45,12 @@ public class User {
     public void setPassword(String password) {
         this.password = password;
     }
+
+    public void setVaultSalt(String vaultSalt) {
+        this.vaultSalt = vaultSalt;
+    }
+
+    public void setKdfIterations(int kdfIterations) {
+        this.kdfIterations = kdfIterations;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+package security;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+
+/**
+ * NIO variant of {@link ChunkedCipher}. Each chunk is read with a positional
+ * channel read into a reusable direct buffer, handed to
+ * {@code Cipher.doFinal(ByteBuffer, ByteBuffer)}, and the result written
+ * straight to the output channel from a second region of that buffer. No
+ * file-sized or chunk-sized {@code byte[]} copies are made on the Java heap.
+ * Same on-disk format.
+ * <p>
+ * The source is deliberately not memory-mapped: a mapping stays open until
+ * the buffer is garbage collected, and on Windows an open mapping makes the
+ * later secure wipe of the original fail.
+ */
+public final class ChannelChunkedCipher {
+
+	private ChannelChunkedCipher() {
+	}
+
+	// =========================
+	// ENCRYPT
+	// =========================
+	public static void encrypt(Path input, Path output, SecretKey key, byte[] iv, CryptoProgress progress)
+			throws IOException, GeneralSecurityException {
+
+		int chunkSize = ChunkedCipher.DEFAULT_CHUNK_SIZE;
+		byte[] header = ChunkedCipher.header(Codec.NONE.flag, chunkSize);
+
+		try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+			 FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					 StandardOpenOption.TRUNCATE_EXISTING)) {
+
+			writeFully(out, ByteBuffer.wrap(header));
+
+			long plainLength = in.size();
+			long chunks = plainLength / chunkSize + 1;
+			CryptoContext ctx = CryptoContext.get();
+			ByteBuffer buf = ctx.direct(2 * chunkSize + ChunkedCipher.TAG_LENGTH);
+			ByteBuffer plain = buf.slice(0, chunkSize);
+			ByteBuffer sealed = buf.slice(chunkSize, chunkSize + ChunkedCipher.TAG_LENGTH);
+
+			for (long i = 0; i < chunks; i++) {
+				boolean last = i == chunks - 1;
+				int len = last ? (int) (plainLength % chunkSize) : chunkSize;
+
+				plain.clear().limit(len);
+				ParallelChunkedCipher.readFully(in, plain, i * chunkSize);
+				plain.flip();
+
+				sealed.clear();
+				Cipher cipher = ChunkedCipher.initChunk(ctx, Cipher.ENCRYPT_MODE, key, iv, header, i, last);
+				cipher.doFinal(plain, sealed);
+				sealed.flip();
+				writeFully(out, sealed);
+				progress.advance(len);
+			}
+		}
+	}
+
+	// =========================
+	// DECRYPT
+	// =========================
+	/**
+	 * Returns {@code false} without touching {@code output} when the file is not
+	 * in the chunked format (legacy single-shot files) or is compressed.
+	 */
+	public static boolean decrypt(Path input, Path output, SecretKey key, byte[] iv, CryptoProgress progress)
+			throws IOException, GeneralSecurityException {
+
+		try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+			byte[] header = ChunkedCipher.readHeader(in);
+			if (!ChunkedCipher.isPlainChunked(header)) return false;
+
+			int chunkSize = ChunkedCipher.chunkSize(header);
+			int sealedSize = chunkSize + ChunkedCipher.TAG_LENGTH;
+			long chunks = ChunkedCipher.chunkCount(in.size(), sealedSize);
+			int lastSealed = ChunkedCipher.lastSealedLength(in.size(), sealedSize);
+
+			try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+
+				CryptoContext ctx = CryptoContext.get();
+				ByteBuffer buf = ctx.direct(chunkSize + sealedSize);
+				ByteBuffer sealed = buf.slice(0, sealedSize);
+				ByteBuffer plain = buf.slice(sealedSize, chunkSize);
+
+				for (long i = 0; i < chunks; i++) {
+					boolean last = i == chunks - 1;
+
+					sealed.clear().limit(last ? lastSealed : sealedSize);
+					ParallelChunkedCipher.readFully(in, sealed, ChunkedCipher.HEADER_LENGTH + i * sealedSize);
+					sealed.flip();
+
+					plain.clear();
+					Cipher cipher = ChunkedCipher.initChunk(ctx, Cipher.DECRYPT_MODE, key, iv, header, i, last);
+					cipher.doFinal(sealed, plain);
+					plain.flip();
+					int n = plain.remaining();
+					writeFully(out, plain);
+					progress.advance(n);
+				}
+			}
+		}
+		return true;
+	}
+
+	private static void writeFully(FileChannel ch, ByteBuffer src) throws IOException {
+		while (src.hasRemaining()) ch.write(src);
+	}
+}
@@ -0,0 +1,371 @@
+package security;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+
+/**
+ * Streaming AES-GCM vault format. The plaintext is cut into fixed-size chunks
+ * and every chunk is sealed on its own, so files of any size go through in
+ * constant memory.
+ *
+ * <pre>
+ * header : "SFVC" | version (1 byte) | flags (1 byte) | chunk size (int)
+ * chunk  : AES-GCM(chunk plaintext) | 16 byte tag
+ * </pre>
+ *
+ * The flags byte names the {@link Codec} the plaintext was compressed with
+ * before it was chunked; for compressed files the chunks hold the deflate
+ * stream.
+ *
+ * Chunk {@code i} uses the file IV with {@code i} folded into its last four
+ * bytes as nonce, and authenticates the header, its index and a "final" flag.
+ * The final chunk is always shorter than a full chunk (it may be empty), so
+ * truncating, reordering or splicing chunks fails authentication.
+ * <p>
+ * Because every chunk has the same sealed size, the chunk index is implicit:
+ * chunk {@code i} starts at {@code HEADER_LENGTH + i * (chunkSize + TAG_LENGTH)}.
+ * {@link #decryptRange} uses that to read and authenticate only the chunks
+ * covering a requested byte range.
+ */
+public final class ChunkedCipher {
+
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+	public static final int HEADER_LENGTH = 10;
+	public static final int TAG_LENGTH = 16; // bytes
+
+	static final String AES_ALGO = "AES/GCM/NoPadding";
+	static final byte VERSION = 1;
+	private static final byte[] MAGIC = { 'S', 'F', 'V', 'C' };
+	private static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+	private ChunkedCipher() {
+	}
+
+	// =========================
+	// ENCRYPT
+	// =========================
+	public static void encrypt(InputStream in, OutputStream out, SecretKey key, byte[] iv, int chunkSize,
+			CryptoProgress progress) throws IOException, GeneralSecurityException {
+		encrypt(in, out, key, iv, chunkSize, Codec.NONE, progress);
+	}
+
+	/**
+	 * Encrypts {@code in}, compressing it first with {@code codec}. Progress is
+	 * reported in bytes read from {@code in}, before compression.
+	 */
+	public static void encrypt(InputStream in, OutputStream out, SecretKey key, byte[] iv, int chunkSize, Codec codec,
+			CryptoProgress progress) throws IOException, GeneralSecurityException {
+
+		byte[] header = header(codec.flag, chunkSize);
+		out.write(header);
+
+		Deflater deflater = null;
+		CryptoProgress chunkProgress = progress;
+		if (codec == Codec.DEFLATE) {
+			deflater = new Deflater(Deflater.BEST_SPEED);
+			in = new DeflaterInputStream(new ProgressInputStream(in, progress), deflater, chunkSize);
+			chunkProgress = CryptoProgress.NONE;
+		}
+
+		try {
+			CryptoContext ctx = CryptoContext.get();
+			byte[] plain = ctx.input(chunkSize);
+			byte[] sealed = ctx.output(chunkSize + TAG_LENGTH);
+
+			for (long index = 0;; index++) {
+				int n = in.readNBytes(plain, 0, chunkSize);
+				boolean last = n < chunkSize;
+
+				Cipher cipher = initChunk(ctx, Cipher.ENCRYPT_MODE, key, iv, header, index, last);
+				int len = cipher.doFinal(plain, 0, n, sealed, 0);
+				out.write(sealed, 0, len);
+				chunkProgress.advance(n);
+
+				if (last) break;
+			}
+			out.flush();
+		} finally {
+			if (deflater != null) deflater.end();
+		}
+	}
+
+	// =========================
+	// DECRYPT
+	// =========================
+	/**
+	 * Decrypts a chunked file. Anything without the chunked header is treated
+	 * as a legacy single-shot {@code .enc} file and decrypted in one piece.
+	 */
+	public static void decrypt(InputStream in, OutputStream out, SecretKey key, byte[] iv, CryptoProgress progress)
+			throws IOException, GeneralSecurityException {
+
+		byte[] header = in.readNBytes(HEADER_LENGTH);
+		if (!isChunked(header)) {
+			progress.advance(decryptLegacy(header, in, out, key, iv));
+			return;
+		}
+
+		int chunkSize = chunkSize(header);
+		Inflater inflater = null;
+		OutputStream sink = out;
+		if (codec(header) == Codec.DEFLATE) {
+			inflater = new Inflater();
+			sink = new InflaterOutputStream(out, inflater, chunkSize);
+		}
+
+		try {
+			CryptoContext ctx = CryptoContext.get();
+			int sealedSize = chunkSize + TAG_LENGTH;
+			byte[] sealed = ctx.input(sealedSize);
+			byte[] plain = ctx.output(chunkSize);
+
+			for (long index = 0;; index++) {
+				int n = in.readNBytes(sealed, 0, sealedSize);
+				if (n < TAG_LENGTH) {
+					throw new AEADBadTagException("Encrypted file is truncated");
+				}
+				boolean last = n < sealedSize;
+
+				Cipher cipher = initChunk(ctx, Cipher.DECRYPT_MODE, key, iv, header, index, last);
+				int len = cipher.doFinal(sealed, 0, n, plain, 0);
+				sink.write(plain, 0, len);
+				progress.advance(len);
+
+				if (last) break;
+			}
+			if (sink instanceof InflaterOutputStream inflating) inflating.finish();
+			out.flush();
+		} finally {
+			if (inflater != null) inflater.end();
+		}
+	}
+
+	private static long decryptLegacy(byte[] head, InputStream in, OutputStream out, SecretKey key, byte[] iv)
+			throws IOException, GeneralSecurityException {
+		ByteArrayOutputStream all = new ByteArrayOutputStream();
+		all.write(head);
+		in.transferTo(all);
+		byte[] plain = CryptoContext.get().gcm(Cipher.DECRYPT_MODE, key, iv).doFinal(all.toByteArray());
+		out.write(plain);
+		out.flush();
+		return plain.length;
+	}
+
+	// =========================
+	// RANDOM ACCESS
+	// =========================
+	/**
+	 * Decrypts {@code length} plaintext bytes starting at {@code offset} and
+	 * writes them to {@code out}. Only the chunks covering the range are read
+	 * and authenticated. The range is clipped to the end of the file; the
+	 * number of bytes written is returned. Legacy single-shot and compressed
+	 * files cannot be seeked into, so they are decrypted from the start and
+	 * the range cut out.
+	 */
+	public static long decryptRange(Path input, OutputStream out, SecretKey key, byte[] iv, long offset, long length)
+			throws IOException, GeneralSecurityException {
+		if (offset < 0 || length < 0) {
+			throw new IllegalArgumentException("Negative offset or length");
+		}
+
+		try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+			byte[] header = readHeader(in);
+			if (!isChunked(header) || codec(header) != Codec.NONE) {
+				RangeOutputStream range = new RangeOutputStream(out, offset, length);
+				try (InputStream legacy = Files.newInputStream(input)) {
+					decrypt(legacy, range, key, iv, CryptoProgress.NONE);
+				}
+				return range.written;
+			}
+
+			int chunkSize = chunkSize(header);
+			int sealedSize = chunkSize + TAG_LENGTH;
+			long chunks = chunkCount(in.size(), sealedSize);
+			long plainLength = (chunks - 1) * chunkSize + lastSealedLength(in.size(), sealedSize) - TAG_LENGTH;
+
+			long end = Math.min(plainLength, offset + Math.min(length, Long.MAX_VALUE - offset));
+			if (offset >= end) return 0;
+
+			CryptoContext ctx = CryptoContext.get();
+			ByteBuffer sealed = ByteBuffer.wrap(ctx.input(sealedSize));
+			byte[] plain = ctx.output(chunkSize);
+
+			for (long i = offset / chunkSize; i <= (end - 1) / chunkSize; i++) {
+				boolean last = i == chunks - 1;
+				sealed.clear().limit(last ? lastSealedLength(in.size(), sealedSize) : sealedSize);
+				ParallelChunkedCipher.readFully(in, sealed, HEADER_LENGTH + i * sealedSize);
+
+				Cipher cipher = initChunk(ctx, Cipher.DECRYPT_MODE, key, iv, header, i, last);
+				int n = cipher.doFinal(sealed.array(), 0, sealed.limit(), plain, 0);
+
+				long chunkStart = i * chunkSize;
+				int from = (int) (Math.max(offset, chunkStart) - chunkStart);
+				int to = (int) (Math.min(end, chunkStart + n) - chunkStart);
+				out.write(plain, from, to - from);
+			}
+			out.flush();
+			return end - offset;
+		}
+	}
+
+	/**
+	 * Plaintext size of a vault file, computed from its length alone for the
+	 * chunked format. Returns -1 for legacy and compressed files.
+	 */
+	public static long plaintextLength(Path input) throws IOException, GeneralSecurityException {
+		try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+			byte[] header = readHeader(in);
+			if (!isChunked(header) || codec(header) != Codec.NONE) return -1;
+			int sealedSize = chunkSize(header) + TAG_LENGTH;
+			long chunks = chunkCount(in.size(), sealedSize);
+			return (chunks - 1) * (sealedSize - TAG_LENGTH) + lastSealedLength(in.size(), sealedSize) - TAG_LENGTH;
+		}
+	}
+
+	static byte[] readHeader(FileChannel in) throws IOException {
+		if (in.size() < HEADER_LENGTH) return new byte[0];
+		ByteBuffer head = ByteBuffer.allocate(HEADER_LENGTH);
+		ParallelChunkedCipher.readFully(in, head, 0);
+		return head.array();
+	}
+
+	static long chunkCount(long fileSize, int sealedSize) {
+		return (fileSize - HEADER_LENGTH) / sealedSize + 1;
+	}
+
+	static int lastSealedLength(long fileSize, int sealedSize) throws AEADBadTagException {
+		int last = (int) ((fileSize - HEADER_LENGTH) % sealedSize);
+		if (last < TAG_LENGTH) {
+			throw new AEADBadTagException("Encrypted file is truncated");
+		}
+		return last;
+	}
+
+	/** Passes through only the bytes that fall inside [offset, offset + length). */
+	private static final class RangeOutputStream extends OutputStream {
+		private final OutputStream out;
+		private final long offset;
+		private final long end;
+		private long position;
+		long written;
+
+		RangeOutputStream(OutputStream out, long offset, long length) {
+			this.out = out;
+			this.offset = offset;
+			this.end = offset + Math.min(length, Long.MAX_VALUE - offset);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			long from = Math.max(offset, position);
+			long to = Math.min(end, position + len);
+			if (from < to) {
+				out.write(b, off + (int) (from - position), (int) (to - from));
+				written += to - from;
+			}
+			position += len;
+		}
+	}
+
+	/** Reports bytes read from the raw input, ahead of compression. */
+	private static final class ProgressInputStream extends FilterInputStream {
+		private final CryptoProgress progress;
+
+		ProgressInputStream(InputStream in, CryptoProgress progress) {
+			super(in);
+			this.progress = progress;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) progress.advance(1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) progress.advance(n);
+			return n;
+		}
+	}
+
+	// =========================
+	// FORMAT HELPERS
+	// =========================
+	static byte[] header(byte flags, int chunkSize) {
+		if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+			throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+		}
+		return ByteBuffer.allocate(HEADER_LENGTH).put(MAGIC).put(VERSION).put(flags).putInt(chunkSize).array();
+	}
+
+	static boolean isChunked(byte[] header) {
+		return header.length == HEADER_LENGTH && Arrays.equals(header, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+	}
+
+	static int chunkSize(byte[] header) throws GeneralSecurityException {
+		if (header[4] != VERSION) {
+			throw new GeneralSecurityException("Unsupported vault format version " + header[4]);
+		}
+		int chunkSize = ByteBuffer.wrap(header, 6, 4).getInt();
+		if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+			throw new GeneralSecurityException("Corrupt header: chunk size " + chunkSize);
+		}
+		return chunkSize;
+	}
+
+	static Codec codec(byte[] header) throws IOException {
+		return Codec.fromFlags(header[5]);
+	}
+
+	/** True when the parallel and channel paths can decrypt the file in place. */
+	static boolean isPlainChunked(byte[] header) throws IOException {
+		return isChunked(header) && codec(header) == Codec.NONE;
+	}
+
+	/** Initialises the context's cipher for chunk {@code index} and returns it. */
+	static Cipher initChunk(CryptoContext ctx, int mode, SecretKey key, byte[] iv, byte[] header, long index,
+			boolean last) throws GeneralSecurityException {
+		Cipher cipher = ctx.gcm(mode, key, chunkNonce(iv, index));
+		cipher.updateAAD(header);
+		cipher.updateAAD(ByteBuffer.allocate(9).putLong(index).put((byte) (last ? 1 : 0)).array());
+		return cipher;
+	}
+
+	static byte[] chunkNonce(byte[] iv, long index) {
+		if (index < 0 || index > 0xFFFFFFFFL) {
+			throw new IllegalArgumentException("Too many chunks");
+		}
+		byte[] nonce = iv.clone();
+		int n = nonce.length;
+		nonce[n - 4] ^= (byte) (index >>> 24);
+		nonce[n - 3] ^= (byte) (index >>> 16);
+		nonce[n - 2] ^= (byte) (index >>> 8);
+		nonce[n - 1] ^= (byte) index;
+		return nonce;
+	}
+}
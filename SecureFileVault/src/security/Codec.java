@@ -0,0 +1,93 @@
+package security;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Compression applied to the plaintext before it is encrypted, recorded in
+ * the flags byte of the chunked header. Selected with
+ * {@code -Dvault.compress=auto|off|deflate}; {@code auto} samples the start
+ * of each file and skips data that is already compressed (images, archives,
+ * video), where deflating only costs time.
+ */
+public enum Codec {
+
+	NONE((byte) 0),
+	DEFLATE((byte) 1);
+
+	/** Bytes sampled from the start of a file to estimate its entropy. */
+	static final int SAMPLE_SIZE = 64 * 1024;
+	/** Above this many bits per byte the data is treated as incompressible. */
+	static final double MAX_ENTROPY = 7.5;
+	private static final int MIN_SIZE = 512;
+
+	final byte flag;
+
+	Codec(byte flag) {
+		this.flag = flag;
+	}
+
+	static Codec fromFlags(byte flags) throws IOException {
+		for (Codec c : values()) {
+			if (c.flag == flags) return c;
+		}
+		throw new IOException("Unsupported codec flags " + flags);
+	}
+
+	/** Picks the codec for {@code input} according to {@code vault.compress}. */
+	public static Codec choose(Path input) throws IOException {
+		Codec configured = configured();
+		if (configured != null) return configured;
+		if (Files.size(input) < MIN_SIZE) return NONE;
+		try (InputStream in = Files.newInputStream(input)) {
+			return entropy(in.readNBytes(SAMPLE_SIZE)) > MAX_ENTROPY ? NONE : DEFLATE;
+		}
+	}
+
+	/**
+	 * Same as {@link #choose(Path)} for a stream of unknown length. The sample
+	 * is read ahead and {@code in} reset, so nothing is consumed.
+	 */
+	public static Codec choose(BufferedInputStream in) throws IOException {
+		Codec configured = configured();
+		if (configured != null) return configured;
+		in.mark(SAMPLE_SIZE);
+		byte[] sample = in.readNBytes(SAMPLE_SIZE);
+		in.reset();
+		if (sample.length < MIN_SIZE) return NONE;
+		return entropy(sample) > MAX_ENTROPY ? NONE : DEFLATE;
+	}
+
+	/** The codec forced by {@code vault.compress}, or null for {@code auto}. */
+	private static Codec configured() {
+		String value = System.getProperty("vault.compress", "auto").trim().toLowerCase();
+		switch (value) {
+		case "off":
+			return NONE;
+		case "deflate":
+			return DEFLATE;
+		case "auto":
+			return null;
+		default:
+			System.err.println("Unknown vault.compress '" + value + "', using auto");
+			return null;
+		}
+	}
+
+	/** Shannon entropy of the sample in bits per byte, from 0 to 8. */
+	static double entropy(byte[] sample) {
+		if (sample.length == 0) return 0;
+		int[] counts = new int[256];
+		for (byte b : sample) counts[b & 0xFF]++;
+		double bits = 0;
+		for (int c : counts) {
+			if (c == 0) continue;
+			double p = (double) c / sample.length;
+			bits -= p * Math.log(p);
+		}
+		return bits / Math.log(2);
+	}
+}
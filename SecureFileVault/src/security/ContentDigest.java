@@ -0,0 +1,89 @@
+package security;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Keyed content digests for deduplication. A plain hash of the plaintext would
+ * let anyone with database access confirm a guess of a file's contents, so the
+ * digest is an HMAC under a key derived from the owner's vault key.
+ */
+public final class ContentDigest {
+
+	public static final String HMAC_ALGO = "HmacSHA256";
+	private static final byte[] DEDUP_LABEL = "SecureFileVault dedup v1".getBytes(StandardCharsets.US_ASCII);
+
+	private ContentDigest() {
+	}
+
+	/** Derives the per-owner dedup key from the vault key. */
+	public static SecretKey deriveKey(SecretKey vaultKey) throws Exception {
+		byte[] raw = vaultKey.getEncoded();
+		try {
+			Mac mac = Mac.getInstance(HMAC_ALGO);
+			mac.init(new SecretKeySpec(raw, HMAC_ALGO));
+			byte[] derived = mac.doFinal(DEDUP_LABEL);
+			SecretKey key = new SecretKeySpec(derived, HMAC_ALGO);
+			Arrays.fill(derived, (byte) 0);
+			return key;
+		} finally {
+			Arrays.fill(raw, (byte) 0);
+		}
+	}
+
+	/**
+	 * Wraps {@code in} so that every byte read through it is fed to the HMAC,
+	 * so the digest is taken on the same pass that encrypts the content.
+	 */
+	public static Digesting digesting(InputStream in, SecretKey dedupKey) throws Exception {
+		Mac mac = Mac.getInstance(HMAC_ALGO);
+		mac.init(dedupKey);
+		return new Digesting(in, mac);
+	}
+
+	/** See {@link #digesting(InputStream, SecretKey)}. */
+	public static final class Digesting extends FilterInputStream {
+
+		private final Mac mac;
+
+		private Digesting(InputStream in, Mac mac) {
+			super(in);
+			this.mac = mac;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b >= 0) mac.update((byte) b);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, len);
+			if (n > 0) mac.update(b, off, n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			throw new IOException("Cannot skip while digesting");
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		/** The digest in Base64. Call once, after the stream is exhausted. */
+		public String digest() {
+			return CryptoUtil.b64(mac.doFinal());
+		}
+	}
+}
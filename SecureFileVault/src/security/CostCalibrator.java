@@ -0,0 +1,97 @@
+package security;
+
+import metrics.Metrics;
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Picks the BCrypt and PBKDF2 costs for this machine. At startup both are
+ * timed at a known cost and scaled to a target latency
+ * ({@code -Dvault.bcrypt.targetMs}, default 250; {@code -Dvault.kdf.targetMs},
+ * default 300), within fixed bounds so a slow or busy machine never drops
+ * below a safe minimum. New passwords and keys use these costs; logins
+ * upgrade accounts whose stored costs fall short of them.
+ */
+public final class CostCalibrator {
+
+	// The floors are the fixed costs used before calibration (OWASP: 600,000 for PBKDF2-HMAC-SHA256),
+	// so calibration can only raise costs
+	public static final int MIN_BCRYPT_ROUNDS = 12;
+	public static final int MAX_BCRYPT_ROUNDS = 16;
+	public static final int MIN_KDF_ITERATIONS = 600_000;
+	public static final int MAX_KDF_ITERATIONS = 5_000_000;
+
+	private static final long BCRYPT_TARGET_MS = Long.getLong("vault.bcrypt.targetMs", 250);
+	private static final long KDF_TARGET_MS = Long.getLong("vault.kdf.targetMs", 300);
+	private static final int KDF_PROBE_ITERATIONS = 50_000;
+	/** Stored KDF costs within this factor of the target are left alone, so timing noise does not cause re-keys. */
+	private static final double KDF_UPGRADE_SLACK = 0.8;
+
+	public record Costs(int bcryptRounds, int kdfIterations) {
+	}
+
+	private static CompletableFuture<Costs> current;
+
+	private CostCalibrator() {
+	}
+
+	/** Starts calibrating in the background; later calls do nothing. */
+	public static synchronized void start() {
+		if (current != null) return;
+		current = CompletableFuture.supplyAsync(CostCalibrator::calibrate, r -> {
+			Thread t = new Thread(r, "vault-calibrate");
+			t.setDaemon(true);
+			t.start();
+		});
+		Metrics.gauge("security.bcrypt.rounds", () -> costs().bcryptRounds());
+		Metrics.gauge("security.kdf.iterations", () -> costs().kdfIterations());
+	}
+
+	/** The calibrated costs, waiting for the calibration if it is still running. */
+	public static Costs costs() {
+		start();
+		return current.join();
+	}
+
+	/** Whether a BCrypt hash was made with fewer rounds than the calibrated cost. */
+	public static boolean isOutdated(String bcryptHash) {
+		return PasswordUtil.rounds(bcryptHash) < costs().bcryptRounds();
+	}
+
+	/** Whether {@code iterations} is clearly below the calibrated KDF cost. */
+	public static boolean isOutdated(int iterations) {
+		return iterations < costs().kdfIterations() * KDF_UPGRADE_SLACK;
+	}
+
+	// =========================
+	// MEASUREMENT
+	// =========================
+	private static Costs calibrate() {
+		// Best of two runs: the first one also pays for class loading and JIT warm-up
+		long bcryptNanos = Math.min(timeBcrypt(), timeBcrypt());
+		long kdfNanos = Math.min(timeKdf(), timeKdf());
+
+		// Every BCrypt round doubles the work
+		double ratio = BCRYPT_TARGET_MS * 1e6 / Math.max(1, bcryptNanos);
+		int rounds = MIN_BCRYPT_ROUNDS + (int) Math.floor(Math.log(ratio) / Math.log(2));
+		rounds = Math.max(MIN_BCRYPT_ROUNDS, Math.min(MAX_BCRYPT_ROUNDS, rounds));
+
+		long iterations = Math.round(KDF_PROBE_ITERATIONS * (KDF_TARGET_MS * 1e6 / Math.max(1, kdfNanos)) / 10_000) * 10_000;
+		iterations = Math.max(MIN_KDF_ITERATIONS, Math.min(MAX_KDF_ITERATIONS, iterations));
+
+		return new Costs(rounds, (int) iterations);
+	}
+
+	private static long timeBcrypt() {
+		long start = System.nanoTime();
+		BCrypt.hashpw("calibration", BCrypt.gensalt(MIN_BCRYPT_ROUNDS));
+		return System.nanoTime() - start;
+	}
+
+	private static long timeKdf() {
+		long start = System.nanoTime();
+		SessionKeyService.deriveKey("calibration".toCharArray(), new byte[16], KDF_PROBE_ITERATIONS).destroy();
+		return System.nanoTime() - start;
+	}
+}
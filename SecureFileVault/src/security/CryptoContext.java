@@ -0,0 +1,128 @@
+package security;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.security.DrbgParameters;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-thread crypto state, so hot paths skip provider lookups and buffer
+ * allocation: one reusable AES-GCM {@link Cipher} and scratch buffers for a
+ * chunk in and a chunk out. {@link #get()} returns the calling thread's
+ * context. A context belongs to one operation at a time; do not hold its
+ * cipher or buffers across a call that may encrypt or decrypt on the same
+ * thread.
+ * <p>
+ * Randomness comes from one shared DRBG seeded at 256-bit strength. IVs come
+ * from {@link #nextIv()}, which never returns the same IV twice in a process.
+ */
+public final class CryptoContext {
+
+	public static final int IV_LENGTH = 12; // bytes (GCM standard)
+	static final int GCM_TAG_BITS = 128;
+
+	/** Buffers above this size are allocated per call instead of being kept by the thread. */
+	private static final int MAX_RETAINED = ParallelChunkedCipher.PARALLEL_CHUNK_SIZE + ChunkedCipher.TAG_LENGTH;
+
+	private static final SecureRandom RANDOM = createRandom();
+	private static final AtomicLong IV_COUNTER = new AtomicLong(RANDOM.nextLong());
+	private static final ThreadLocal<CryptoContext> CURRENT = ThreadLocal.withInitial(CryptoContext::new);
+
+	private Cipher gcm;
+	private byte[] input = new byte[0];
+	private byte[] output = new byte[0];
+	private ByteBuffer direct = ByteBuffer.allocateDirect(0);
+
+	private CryptoContext() {
+	}
+
+	/** The calling thread's context. */
+	public static CryptoContext get() {
+		return CURRENT.get();
+	}
+
+	// =========================
+	// RANDOMNESS
+	// =========================
+	/** The shared RNG. Thread-safe. */
+	public static SecureRandom random() {
+		return RANDOM;
+	}
+
+	public static byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		RANDOM.nextBytes(bytes);
+		return bytes;
+	}
+
+	/**
+	 * A GCM IV that is unique within this process, however many threads ask:
+	 * the first 8 bytes are an atomic counter starting at a random value, the
+	 * last 4 are zero. The chunked format folds the chunk index into those last
+	 * 4 bytes, so chunk nonces of different files cannot collide either. The
+	 * random start keeps separate runs apart; new files also get their own
+	 * data key, so an IV is never used twice under one key.
+	 */
+	public static byte[] nextIv() {
+		return ByteBuffer.allocate(IV_LENGTH).putLong(IV_COUNTER.getAndIncrement()).array();
+	}
+
+	private static SecureRandom createRandom() {
+		try {
+			return SecureRandom.getInstance("DRBG",
+					DrbgParameters.instantiation(256, DrbgParameters.Capability.RESEED_ONLY, null));
+		} catch (NoSuchAlgorithmException e) {
+			return new SecureRandom();
+		}
+	}
+
+	// =========================
+	// CIPHER
+	// =========================
+	/**
+	 * The thread's AES-GCM cipher, initialised for {@code mode} with {@code nonce}.
+	 * Encrypting twice in a row with the same key and nonce fails with
+	 * {@link InvalidAlgorithmParameterException}: that is nonce
+	 * reuse, and the caller must pick a fresh IV.
+	 */
+	public Cipher gcm(int mode, SecretKey key, byte[] nonce) throws GeneralSecurityException {
+		if (gcm == null) gcm = Cipher.getInstance(ChunkedCipher.AES_ALGO);
+		gcm.init(mode, key, new GCMParameterSpec(GCM_TAG_BITS, nonce));
+		return gcm;
+	}
+
+	// =========================
+	// BUFFERS
+	// =========================
+	/** Scratch array of at least {@code size} bytes for input, e.g. a plaintext chunk. */
+	public byte[] input(int size) {
+		if (input.length >= size) return input;
+		byte[] buf = new byte[size];
+		if (size <= MAX_RETAINED) input = buf;
+		return buf;
+	}
+
+	/** Scratch array of at least {@code size} bytes for output; independent of {@link #input(int)}. */
+	public byte[] output(int size) {
+		if (output.length >= size) return output;
+		byte[] buf = new byte[size];
+		if (size <= MAX_RETAINED) output = buf;
+		return buf;
+	}
+
+	/** Cleared direct buffer with a limit of {@code size}, for channel I/O. */
+	public ByteBuffer direct(int size) {
+		if (direct.capacity() < size) {
+			ByteBuffer buf = ByteBuffer.allocateDirect(size);
+			if (size > MAX_RETAINED) return buf;
+			direct = buf;
+		}
+		return direct.clear().limit(size);
+	}
+}
@@ -0,0 +1,35 @@
+package security;
+
+/**
+ * How file encryption moves bytes between disk and the cipher. All modes
+ * write and read the same chunked format, so they can be swapped freely to
+ * compare throughput. Selected with {@code -Dvault.crypto.io=stream|channel|parallel|auto}.
+ */
+public enum CryptoIoMode {
+
+	/** InputStream/OutputStream with one chunk-sized heap buffer. */
+	STREAM,
+	/** FileChannel with positional reads into direct ByteBuffers. */
+	CHANNEL,
+	/** Positional FileChannel I/O with chunks sealed on all cores. */
+	PARALLEL,
+	/** STREAM for small files, PARALLEL from {@link #PARALLEL_THRESHOLD} up. */
+	AUTO;
+
+	public static final long PARALLEL_THRESHOLD = 32L * 1024 * 1024;
+
+	public static CryptoIoMode configured() {
+		String value = System.getProperty("vault.crypto.io", "auto");
+		try {
+			return valueOf(value.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err.println("Unknown vault.crypto.io '" + value + "', using AUTO");
+			return AUTO;
+		}
+	}
+
+	CryptoIoMode resolve(long size) {
+		if (this != AUTO) return this;
+		return size >= PARALLEL_THRESHOLD ? PARALLEL : STREAM;
+	}
+}
@@ -0,0 +1,17 @@
+package security;
+
+import java.io.IOException;
+
+/**
+ * Callback invoked by the file encryption paths after each chunk, with the
+ * number of plaintext bytes processed. Implementations may throw (typically
+ * {@link java.io.InterruptedIOException}) to cancel the operation; the
+ * parallel path calls it from several threads at once.
+ */
+@FunctionalInterface
+public interface CryptoProgress {
+
+	CryptoProgress NONE = bytes -> { };
+
+	void advance(long bytes) throws IOException;
+}
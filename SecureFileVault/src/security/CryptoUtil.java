@@ -1,47 +1,166 @@
 package security;
 
+import metrics.Metrics;
+import metrics.Timer;
+
 import javax.crypto.*;
 import javax.crypto.spec.*;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.*;
+import java.util.Arrays;
 import java.util.Base64;
 
 public class CryptoUtil {
 
-	private static final String AES_ALGO = "AES/GCM/NoPadding";
-	private static final int GCM_TAG_LENGTH = 128; // bits
-	private static final int IV_LENGTH = 12; // bytes (GCM standard)
 	private static final int KEY_LENGTH = 256; // bits
 
+	private static final Timer KDF_TIMER = Metrics.timer("crypto.pbkdf2");
+	private static final Timer ENCRYPT_TIMER = Metrics.timer("crypto.encrypt");
+	private static final Timer DECRYPT_TIMER = Metrics.timer("crypto.decrypt");
+	private static final Timer ENCRYPT_FILE_TIMER = Metrics.timer("crypto.encryptFile");
+	private static final Timer DECRYPT_FILE_TIMER = Metrics.timer("crypto.decryptFile");
 
 	public static SecretKey deriveKey(char[] password, byte[] salt, int iterations) throws Exception {
-		SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+		long start = System.nanoTime();
 		PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, KEY_LENGTH);
-		SecretKey tmp = factory.generateSecret(spec);
-		return new SecretKeySpec(tmp.getEncoded(), "AES");
+		byte[] raw = null;
+		try {
+			SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+			raw = factory.generateSecret(spec).getEncoded();
+			return new SecretKeySpec(raw, "AES");
+		} finally {
+			spec.clearPassword();
+			if (raw != null) Arrays.fill(raw, (byte) 0);
+			KDF_TIMER.record(System.nanoTime() - start);
+		}
 	}
 
 	public static byte[] generateSalt() {
-		byte[] salt = new byte[16];
-		new SecureRandom().nextBytes(salt);
-		return salt;
+		return CryptoContext.randomBytes(16);
 	}
 
 	public static byte[] generateIV() {
-		byte[] iv = new byte[IV_LENGTH];
-		new SecureRandom().nextBytes(iv);
-		return iv;
+		return CryptoContext.nextIv();
 	}
 
 	public static byte[] encrypt(byte[] plain, SecretKey key, byte[] iv) throws Exception {
-		Cipher cipher = Cipher.getInstance(AES_ALGO);
-		cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
-		return cipher.doFinal(plain);
+		long start = System.nanoTime();
+		byte[] out = CryptoContext.get().gcm(Cipher.ENCRYPT_MODE, key, iv).doFinal(plain);
+		ENCRYPT_TIMER.record(System.nanoTime() - start, plain.length);
+		return out;
 	}
 
 	public static byte[] decrypt(byte[] cipherText, SecretKey key, byte[] iv) throws Exception {
-		Cipher cipher = Cipher.getInstance(AES_ALGO);
-		cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
-		return cipher.doFinal(cipherText);
+		long start = System.nanoTime();
+		byte[] out = CryptoContext.get().gcm(Cipher.DECRYPT_MODE, key, iv).doFinal(cipherText);
+		DECRYPT_TIMER.record(System.nanoTime() - start, cipherText.length);
+		return out;
+	}
+
+	/**
+	 * Streams {@code in} into the chunked vault format (see {@link ChunkedCipher}),
+	 * so memory use does not depend on the file size.
+	 */
+	public static void encrypt(InputStream in, OutputStream out, SecretKey key, byte[] iv) throws Exception {
+		ChunkedCipher.encrypt(in, out, key, iv, ChunkedCipher.DEFAULT_CHUNK_SIZE, CryptoProgress.NONE);
+	}
+
+	/**
+	 * Streams {@code in} into the chunked format, compressed with {@code codec},
+	 * for input that is not a file, such as a network upload. Returns the number
+	 * of plaintext bytes read.
+	 */
+	public static long encrypt(InputStream in, OutputStream out, SecretKey key, byte[] iv, Codec codec,
+			CryptoProgress progress) throws Exception {
+		long start = System.nanoTime();
+		long[] bytes = { 0 };
+		ChunkedCipher.encrypt(in, out, key, iv, ChunkedCipher.DEFAULT_CHUNK_SIZE, codec, n -> {
+			bytes[0] += n;
+			progress.advance(n);
+		});
+		ENCRYPT_FILE_TIMER.record(System.nanoTime() - start, bytes[0]);
+		return bytes[0];
+	}
+
+	/**
+	 * Streams a vault file back to plaintext. Accepts both the chunked format and
+	 * legacy single-shot files written by {@link #encrypt(byte[], SecretKey, byte[])}.
+	 */
+	public static void decrypt(InputStream in, OutputStream out, SecretKey key, byte[] iv) throws Exception {
+		ChunkedCipher.decrypt(in, out, key, iv, CryptoProgress.NONE);
+	}
+
+	/**
+	 * Encrypts a file to the chunked format using the given I/O strategy.
+	 */
+	public static void encryptFile(Path input, Path output, SecretKey key, byte[] iv, CryptoIoMode mode)
+			throws Exception {
+		encryptFile(input, output, key, iv, mode, CryptoProgress.NONE);
+	}
+
+	/**
+	 * Same as {@link #encryptFile(Path, Path, SecretKey, byte[], CryptoIoMode)},
+	 * reporting progress after every chunk. The callback may throw to cancel.
+	 */
+	public static void encryptFile(Path input, Path output, SecretKey key, byte[] iv, CryptoIoMode mode,
+			CryptoProgress progress) throws Exception {
+		encryptFile(input, output, key, iv, mode, Codec.NONE, progress);
+	}
+
+	/**
+	 * Encrypts a file, compressing it first with {@code codec}. Compressed
+	 * output is a single deflate stream, so it always takes the stream path.
+	 */
+	public static void encryptFile(Path input, Path output, SecretKey key, byte[] iv, CryptoIoMode mode, Codec codec,
+			CryptoProgress progress) throws Exception {
+		long start = System.nanoTime();
+		long size = Files.size(input);
+		CryptoIoMode resolved = codec == Codec.NONE ? mode.resolve(size) : CryptoIoMode.STREAM;
+		switch (resolved) {
+		case PARALLEL -> ParallelChunkedCipher.encrypt(input, output, key, iv, progress);
+		case CHANNEL -> ChannelChunkedCipher.encrypt(input, output, key, iv, progress);
+		default -> {
+			try (InputStream in = Files.newInputStream(input);
+				 OutputStream out = Files.newOutputStream(output)) {
+				ChunkedCipher.encrypt(in, out, key, iv, ChunkedCipher.DEFAULT_CHUNK_SIZE, codec, progress);
+			}
+		}
+		}
+		ENCRYPT_FILE_TIMER.record(System.nanoTime() - start, size);
+	}
+
+	/**
+	 * Decrypts a vault file using the given I/O strategy. Legacy single-shot
+	 * and compressed files always take the stream path.
+	 */
+	public static void decryptFile(Path input, Path output, SecretKey key, byte[] iv, CryptoIoMode mode)
+			throws Exception {
+		decryptFile(input, output, key, iv, mode, CryptoProgress.NONE);
+	}
+
+	/**
+	 * Same as {@link #decryptFile(Path, Path, SecretKey, byte[], CryptoIoMode)},
+	 * reporting progress after every chunk. The callback may throw to cancel.
+	 */
+	public static void decryptFile(Path input, Path output, SecretKey key, byte[] iv, CryptoIoMode mode,
+			CryptoProgress progress) throws Exception {
+		long start = System.nanoTime();
+		long size = Files.size(input);
+		boolean done = switch (mode.resolve(size)) {
+		case PARALLEL -> ParallelChunkedCipher.decrypt(input, output, key, iv, progress);
+		case CHANNEL -> ChannelChunkedCipher.decrypt(input, output, key, iv, progress);
+		default -> false;
+		};
+		if (!done) {
+			try (InputStream in = Files.newInputStream(input);
+				 OutputStream out = Files.newOutputStream(output)) {
+				ChunkedCipher.decrypt(in, out, key, iv, progress);
+			}
+		}
+		DECRYPT_FILE_TIMER.record(System.nanoTime() - start, size);
 	}
 
 	public static String b64(byte[] data) {
@@ -0,0 +1,51 @@
+package security;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * Envelope encryption helpers. Each file is encrypted under its own random
+ * data key, and only the data key is encrypted ("wrapped") under the key
+ * derived from the user's password. Changing the password re-wraps the data
+ * keys instead of re-encrypting the files. Wrapping uses AES Key Wrap
+ * (RFC 3394).
+ */
+public final class KeyWrap {
+
+	private static final String WRAP_ALGO = "AESWrap";
+	private static final int DATA_KEY_LENGTH = 256; // bits
+
+	private KeyWrap() {
+	}
+
+	/** A fresh random AES data key. */
+	public static SecretKey newDataKey() {
+		try {
+			KeyGenerator gen = KeyGenerator.getInstance("AES");
+			gen.init(DATA_KEY_LENGTH, CryptoContext.random());
+			return gen.generateKey();
+		} catch (Exception e) {
+			throw new IllegalStateException("Data key generation failed", e);
+		}
+	}
+
+	/** Wraps {@code key} under {@code kek}; the result is Base64. */
+	public static String wrap(SecretKey key, SecretKey kek) throws Exception {
+		Cipher cipher = Cipher.getInstance(WRAP_ALGO);
+		cipher.init(Cipher.WRAP_MODE, kek);
+		return CryptoUtil.b64(cipher.wrap(key));
+	}
+
+	/** Unwraps an AES key produced by {@link #wrap}. */
+	public static SecretKey unwrap(String wrapped, SecretKey kek) throws Exception {
+		return unwrap(wrapped, kek, "AES");
+	}
+
+	/** Unwraps a key for {@code algorithm}; fails if {@code kek} is not the wrapping key. */
+	public static SecretKey unwrap(String wrapped, SecretKey kek, String algorithm) throws Exception {
+		Cipher cipher = Cipher.getInstance(WRAP_ALGO);
+		cipher.init(Cipher.UNWRAP_MODE, kek);
+		return (SecretKey) cipher.unwrap(CryptoUtil.fromB64(wrapped), algorithm, Cipher.SECRET_KEY);
+	}
+}
@@ -0,0 +1,184 @@
+package security;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Multi-core variant of {@link ChunkedCipher}. Every chunk of the chunked
+ * format is authenticated on its own and lives at a fixed offset, so a file
+ * is split into segments of consecutive chunks that workers read, seal and
+ * write back with positional I/O. The output is byte-for-byte the same
+ * format, readable by the sequential decrypt path.
+ */
+public final class ParallelChunkedCipher {
+
+	/** Larger chunks keep per-chunk overhead low when many cores share the work. */
+	public static final int PARALLEL_CHUNK_SIZE = 1024 * 1024;
+
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+	private static final ForkJoinPool POOL = new ForkJoinPool(THREADS);
+	private static final int SEGMENTS_PER_THREAD = 4;
+
+	private ParallelChunkedCipher() {
+	}
+
+	// =========================
+	// ENCRYPT
+	// =========================
+	public static void encrypt(Path input, Path output, SecretKey key, byte[] iv, CryptoProgress progress)
+			throws IOException, GeneralSecurityException {
+
+		int chunkSize = PARALLEL_CHUNK_SIZE;
+		byte[] header = ChunkedCipher.header(Codec.NONE.flag, chunkSize);
+
+		try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+			 FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					 StandardOpenOption.TRUNCATE_EXISTING)) {
+
+			long plainLength = in.size();
+			long chunks = plainLength / chunkSize + 1; // final chunk is always short, possibly empty
+			out.write(ByteBuffer.wrap(header), 0);
+
+			runSegments(chunks, (from, to) -> {
+				CryptoContext ctx = CryptoContext.get();
+				ByteBuffer plain = ByteBuffer.wrap(ctx.input(chunkSize));
+				ByteBuffer sealed = ByteBuffer.wrap(ctx.output(chunkSize + ChunkedCipher.TAG_LENGTH));
+				for (long i = from; i < to; i++) {
+					boolean last = i == chunks - 1;
+					int len = last ? (int) (plainLength % chunkSize) : chunkSize;
+
+					plain.clear().limit(len);
+					readFully(in, plain, i * chunkSize);
+					plain.flip();
+
+					Cipher cipher = ChunkedCipher.initChunk(ctx, Cipher.ENCRYPT_MODE, key, iv, header, i, last);
+					int n = cipher.doFinal(plain.array(), 0, len, sealed.array(), 0);
+					sealed.clear().limit(n);
+					writeFully(out, sealed, ChunkedCipher.HEADER_LENGTH + i * (chunkSize + ChunkedCipher.TAG_LENGTH));
+					progress.advance(len);
+				}
+			});
+		}
+	}
+
+	// =========================
+	// DECRYPT
+	// =========================
+	/**
+	 * Decrypts a chunked vault file in parallel. Returns {@code false} without
+	 * touching {@code output} when the file is not in the chunked format or is
+	 * compressed, so the caller can fall back to the sequential stream path.
+	 */
+	public static boolean decrypt(Path input, Path output, SecretKey key, byte[] iv, CryptoProgress progress)
+			throws IOException, GeneralSecurityException {
+
+		try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+			byte[] header = ChunkedCipher.readHeader(in);
+			if (!ChunkedCipher.isPlainChunked(header)) return false;
+
+			int chunkSize = ChunkedCipher.chunkSize(header);
+			int sealedSize = chunkSize + ChunkedCipher.TAG_LENGTH;
+			long chunks = ChunkedCipher.chunkCount(in.size(), sealedSize);
+			int lastSealed = ChunkedCipher.lastSealedLength(in.size(), sealedSize);
+
+			try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+
+				runSegments(chunks, (from, to) -> {
+					CryptoContext ctx = CryptoContext.get();
+					ByteBuffer sealed = ByteBuffer.wrap(ctx.input(sealedSize));
+					ByteBuffer plain = ByteBuffer.wrap(ctx.output(chunkSize));
+					for (long i = from; i < to; i++) {
+						boolean last = i == chunks - 1;
+
+						sealed.clear().limit(last ? lastSealed : sealedSize);
+						readFully(in, sealed, ChunkedCipher.HEADER_LENGTH + i * sealedSize);
+						sealed.flip();
+
+						Cipher cipher = ChunkedCipher.initChunk(ctx, Cipher.DECRYPT_MODE, key, iv, header, i, last);
+						int n = cipher.doFinal(sealed.array(), 0, sealed.limit(), plain.array(), 0);
+						plain.clear().limit(n);
+						writeFully(out, plain, i * chunkSize);
+						progress.advance(n);
+					}
+				});
+			}
+		}
+		return true;
+	}
+
+	// =========================
+	// WORKER PLUMBING
+	// =========================
+	@FunctionalInterface
+	interface SegmentTask {
+		void run(long fromChunk, long toChunk) throws IOException, GeneralSecurityException;
+	}
+
+	static void runSegments(long chunks, SegmentTask task) throws IOException, GeneralSecurityException {
+		long segments = Math.min(chunks, (long) THREADS * SEGMENTS_PER_THREAD);
+		long perSegment = (chunks + segments - 1) / segments;
+
+		// Submitted one by one so that a failure or cancellation can stop segments not yet started
+		AtomicBoolean stop = new AtomicBoolean();
+		List<ForkJoinTask<Void>> results = new ArrayList<>();
+		for (long from = 0; from < chunks; from += perSegment) {
+			long start = from;
+			long end = Math.min(chunks, from + perSegment);
+			Callable<Void> work = () -> {
+				if (!stop.get()) task.run(start, end);
+				return null;
+			};
+			results.add(POOL.submit(work));
+		}
+
+		try {
+			for (ForkJoinTask<Void> f : results) f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			// ForkJoinPool wraps a checked exception from a Callable in a plain RuntimeException,
+			// and may wrap that again in a copy made on the waiting thread
+			while (cause.getClass() == RuntimeException.class && cause.getCause() != null) cause = cause.getCause();
+			if (cause instanceof IOException io) throw io;
+			if (cause instanceof GeneralSecurityException gse) throw gse;
+			if (cause instanceof RuntimeException re) throw re;
+			throw new IOException(cause);
+		} finally {
+			// Cancelling a running segment does not stop it, so wait for every one: returning
+			// early would close the channels, and let the caller wipe the key, under it
+			stop.set(true);
+			for (ForkJoinTask<Void> f : results) f.quietlyJoin();
+		}
+	}
+
+	static void readFully(FileChannel ch, ByteBuffer dst, long position) throws IOException {
+		while (dst.hasRemaining()) {
+			int n = ch.read(dst, position);
+			if (n < 0) throw new EOFException("Unexpected end of file");
+			position += n;
+		}
+	}
+
+	static void writeFully(FileChannel ch, ByteBuffer src, long position) throws IOException {
+		while (src.hasRemaining()) {
+			position += ch.write(src, position);
+		}
+	}
+}
@@ -1,20 +1,105 @@
 package security;
 
+import metrics.Metrics;
+import metrics.Timer;
 import org.mindrot.jbcrypt.BCrypt;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 public class PasswordUtil {
-	final static int ROUND = 12;
+	private static final Timer HASH_TIMER = Metrics.timer("crypto.bcrypt.hash");
+	private static final Timer VERIFY_TIMER = Metrics.timer("crypto.bcrypt.verify");
+
+	// $2a$12$ + 22 characters of salt + 31 of checksum; jBCrypt reads revisions 2 and 2a
+	private static final Pattern HASH_FORMAT = Pattern.compile("\\$2(a?)\\$(\\d\\d)\\$([./A-Za-z0-9]{22})([./A-Za-z0-9]{31})");
+	private static final String BASE64 = "./ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+	private static final int SALT_LENGTH = 16;
+	private static final int CHECKSUM_LENGTH = 23;
+	// "OrpheanBeholderScryDoubt", the text BCrypt encrypts
+	private static final int[] CIPHERTEXT = { 0x4f727068, 0x65616e42, 0x65686f6c, 0x64657253, 0x63727944, 0x6f756274 };
+
+    /** Hashes with the calibrated cost, see {@link CostCalibrator}. */
     public static String hashPassword(String password) {
-    	String hashed = BCrypt.hashpw(password, BCrypt.gensalt(ROUND));
+    	long start = System.nanoTime();
+    	String hashed = BCrypt.hashpw(password, BCrypt.gensalt(CostCalibrator.costs().bcryptRounds()));
+    	HASH_TIMER.record(System.nanoTime() - start);
     	return hashed;
     }
 
-    public static boolean verifyPassword(String inputPassword, String storedHash) {
-    		if (storedHash == null) return false;
-    		try {
-            return BCrypt.checkpw(inputPassword, storedHash);
+    /**
+     * Checks a password without turning it into a String that cannot be wiped.
+     * jBCrypt only takes Strings, so the hash is computed with its raw primitive
+     * from UTF-8 bytes that are cleared afterwards, and compared with the
+     * checksum decoded from {@code storedHash}.
+     */
+    public static boolean verifyPassword(char[] inputPassword, String storedHash) {
+        if (storedHash == null) return false;
+        Matcher hash = HASH_FORMAT.matcher(storedHash);
+        if (!hash.matches()) return false;
+        long start = System.nanoTime();
+        // Revision 2a hashes the password with a terminating NUL, like jBCrypt does
+        byte[] key = utf8(inputPassword, !hash.group(1).isEmpty());
+        try {
+            if (key.length == 0) return false; // revision 2 with an empty password, which jBCrypt cannot hash
+            byte[] salt = decodeBase64(hash.group(3), SALT_LENGTH);
+            byte[] raw = new BCrypt().crypt_raw(key, salt, Integer.parseInt(hash.group(2)), CIPHERTEXT.clone());
+            return MessageDigest.isEqual(Arrays.copyOf(raw, CHECKSUM_LENGTH),
+                    decodeBase64(hash.group(4), CHECKSUM_LENGTH));
         } catch (IllegalArgumentException e) {
             return false; 
+        } finally {
+            Arrays.fill(key, (byte) 0);
+            VERIFY_TIMER.record(System.nanoTime() - start);
+        }
+    }
+
+    /** The cost (log2 rounds) recorded in a BCrypt hash such as {@code $2a$12$...}, or 0 if unreadable. */
+    public static int rounds(String storedHash) {
+        if (storedHash == null || storedHash.length() < 7) return 0;
+        try {
+            return Integer.parseInt(storedHash.substring(4, 6));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // =========================
+    // BCRYPT ENCODING
+    // =========================
+    private static byte[] utf8(char[] password, boolean nulTerminated) {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer encoded = ByteBuffer.allocate((int) (password.length * encoder.maxBytesPerChar()) + 1);
+        encoder.encode(CharBuffer.wrap(password), encoded, true);
+        encoder.flush(encoded);
+        if (nulTerminated) encoded.put((byte) 0);
+        byte[] bytes = Arrays.copyOf(encoded.array(), encoded.position());
+        Arrays.fill(encoded.array(), (byte) 0);
+        return bytes;
+    }
+
+    /** Decodes BCrypt's base64 variant, which has its own alphabet and no padding. */
+    private static byte[] decodeBase64(String text, int length) {
+        byte[] out = new byte[length];
+        int bits = 0, buffer = 0, n = 0;
+        for (int i = 0; i < text.length() && n < length; i++) {
+            buffer = (buffer << 6) | BASE64.indexOf(text.charAt(i));
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                out[n++] = (byte) (buffer >> bits);
+                buffer &= (1 << bits) - 1;
+            }
         }
+        return out;
     }
 }
\ No newline at end of file
@@ -0,0 +1,107 @@
+package security;
+
+import model.User;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens vault sessions. The PBKDF2 vault key derivation is started on a
+ * background thread at the same time as the BCrypt password check, so a
+ * login costs roughly the slower of the two instead of their sum. If the
+ * password turns out to be wrong, the derived key is wiped as soon as the
+ * (non-interruptible) derivation finishes.
+ */
+public final class SessionKeyService {
+
+	/** PBKDF2 iterations of accounts created before per-user costs were stored. */
+	public static final int VAULT_KDF_ITERATIONS = 600_000;
+
+	private static final ExecutorService KDF_POOL = Executors.newFixedThreadPool(
+			Math.max(2, Runtime.getRuntime().availableProcessors() / 2), daemonThreads());
+
+	private SessionKeyService() {
+	}
+
+	/**
+	 * Verifies {@code password} against the user's BCrypt hash while deriving
+	 * the vault key in parallel. Returns the session, or null if the password
+	 * is wrong. Does not modify {@code password}; the caller wipes it.
+	 */
+	public static VaultSession open(User user, char[] password) throws Exception {
+		CompletableFuture<VaultKey> key = deriveAsync(password, vaultSalt(user), kdfIterations(user));
+
+		boolean verified = false;
+		try {
+			verified = PasswordUtil.verifyPassword(password, user.getPassword());
+		} finally {
+			if (!verified) discard(key);
+		}
+		if (!verified) return null;
+
+		try {
+			return new VaultSession(user, key.get());
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof Exception ex ? ex : e;
+		}
+	}
+
+	/**
+	 * Starts deriving a vault key on the KDF pool. The password is copied, so
+	 * the caller may wipe its array straight away.
+	 */
+	public static CompletableFuture<VaultKey> deriveAsync(char[] password, byte[] salt, int iterations) {
+		char[] copy = password.clone();
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return deriveKey(copy, salt, iterations);
+			} finally {
+				Arrays.fill(copy, '\0');
+			}
+		}, KDF_POOL);
+	}
+
+	static VaultKey deriveKey(char[] password, byte[] salt, int iterations) {
+		byte[] raw = null;
+		try {
+			raw = CryptoUtil.deriveKey(password, salt, iterations).getEncoded();
+			return new VaultKey(raw);
+		} catch (Exception e) {
+			throw new IllegalStateException("Vault key derivation failed", e);
+		} finally {
+			if (raw != null) Arrays.fill(raw, (byte) 0);
+		}
+	}
+
+	/** The user's stored PBKDF2 iteration count, or the old fixed count if none is stored. */
+	public static int kdfIterations(User user) {
+		return user.getKdfIterations() > 0 ? user.getKdfIterations() : VAULT_KDF_ITERATIONS;
+	}
+
+	/** Per-user vault salt, with the fixed fallback used by old accounts. */
+	public static byte[] vaultSalt(User user) {
+		String dbSalt = user.getVaultSalt();
+		if (dbSalt != null && !dbSalt.isEmpty()) {
+			return CryptoUtil.fromB64(dbSalt);
+		}
+		return "STATIC_SALT_DEMO".getBytes(); // Fallback for old accounts
+	}
+
+	private static void discard(CompletableFuture<VaultKey> key) {
+		key.thenAccept(VaultKey::destroy);
+	}
+
+	private static ThreadFactory daemonThreads() {
+		AtomicInteger n = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, "vault-kdf-" + n.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+}
@@ -0,0 +1,87 @@
+package security;
+
+import javax.crypto.SecretKey;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * AES key whose bytes can be wiped. {@code SecretKeySpec} does not support
+ * {@link #destroy()}, so session keys use this instead and are zeroized on
+ * logout.
+ * <p>
+ * A re-key swaps in new bytes while the session stays open (see
+ * {@link #replace}). Work that wraps or unwraps data keys under this key runs
+ * inside {@link #use}, so it never sees the old key for one step and the new
+ * one for the next.
+ */
+public final class VaultKey implements SecretKey {
+
+	private static final long serialVersionUID = 1L;
+
+	private final byte[] key;
+	private volatile boolean destroyed;
+	// Fair, so a waiting re-key is not starved by a steady stream of transfers
+	private final ReentrantReadWriteLock inUse = new ReentrantReadWriteLock(true);
+
+	/** Takes a copy of {@code key}; the caller should wipe its own array. */
+	public VaultKey(byte[] key) {
+		this.key = key.clone();
+	}
+
+	@Override
+	public String getAlgorithm() {
+		return "AES";
+	}
+
+	@Override
+	public String getFormat() {
+		return "RAW";
+	}
+
+	@Override
+	public byte[] getEncoded() {
+		if (destroyed) throw new IllegalStateException("Key has been destroyed");
+		return key.clone();
+	}
+
+	/** Runs {@code action} while the key cannot be replaced. */
+	public <T> T use(Callable<T> action) throws Exception {
+		inUse.readLock().lock();
+		try {
+			return action.call();
+		} finally {
+			inUse.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Waits until no {@link #use} is running, runs {@code commit} (typically
+	 * storing data keys re-wrapped under {@code next}) and then takes over the
+	 * bytes of {@code next}. If {@code commit} fails the key is left as it was.
+	 */
+	public void replace(VaultKey next, Callable<?> commit) throws Exception {
+		inUse.writeLock().lock();
+		try {
+			if (destroyed) throw new IllegalStateException("Key has been destroyed");
+			if (next.key.length != key.length) throw new IllegalArgumentException("Key length differs");
+			commit.call();
+			synchronized (this) {
+				if (!destroyed) System.arraycopy(next.key, 0, key, 0, key.length);
+			}
+		} finally {
+			inUse.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public synchronized void destroy() {
+		destroyed = true;
+		Arrays.fill(key, (byte) 0);
+	}
+
+	@Override
+	public boolean isDestroyed() {
+		return destroyed;
+	}
+}
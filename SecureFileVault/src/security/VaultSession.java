@@ -0,0 +1,33 @@
+package security;
+
+import model.User;
+
+import java.util.Arrays;
+
+/**
+ * A logged-in user together with the vault key derived for them. The key is
+ * derived once at login and reused for the whole session, unless a re-key
+ * replaces its bytes in place; {@link #close()} wipes it (and any session
+ * password still held) on logout.
+ */
+public final class VaultSession implements AutoCloseable {
+
+	private final User user;
+	private final VaultKey key;
+
+	public VaultSession(User user, VaultKey key) {
+		this.user = user;
+		this.key = key;
+	}
+
+	public User getUser() { return user; }
+	public VaultKey getKey() { return key; }
+
+	@Override
+	public void close() {
+		key.destroy();
+		char[] password = user.getSessionPassword();
+		if (password != null) Arrays.fill(password, '\0');
+		user.setSessionPassword(null);
+	}
+}
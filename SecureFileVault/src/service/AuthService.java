@@ -0,0 +1,271 @@
+package service;
+
+import dao.AuditLogDAO;
+import dao.UserDAO;
+import metrics.Counter;
+import metrics.Metrics;
+import model.User;
+import security.CostCalibrator;
+import security.CryptoUtil;
+import security.PasswordUtil;
+import security.SessionKeyService;
+import security.VaultSession;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Verifies logins. Checks run on a pool sized to the cores, so concurrent
+ * logins spread over them, and are throttled per account:
+ * {@link #MAX_FAILURES} failures within {@link #WINDOW_MS} lock the email for
+ * a period that doubles with every lockout, up to {@link #MAX_LOCK_MS}. A check
+ * takes a slot before it runs, so parallel guesses cannot slip past the limit.
+ * <p>
+ * Unknown emails go through the same BCrypt check against a dummy hash and are
+ * throttled like real ones, so neither timing nor lockouts reveal whether an
+ * account exists. A successful login upgrades a password hash or vault key made
+ * with less than the calibrated cost (see {@link CostCalibrator}) in the
+ * background.
+ */
+public final class AuthService {
+
+	public static final int MAX_FAILURES = 3;
+	static final long WINDOW_MS = 15 * 60 * 1000;
+	static final long BASE_LOCK_MS = 10_000;
+	static final long MAX_LOCK_MS = 15 * 60 * 1000;
+	static final long IN_FLIGHT_RETRY_MS = 1_000;
+	private static final int CLEANUP_THRESHOLD = 10_000;
+
+	public enum Status { SUCCESS, INVALID, LOCKED }
+
+	/**
+	 * Outcome of a login. {@code session} is set on success; {@code retryAfterMillis}
+	 * when locked; {@code attemptsLeft} before the next lockout otherwise.
+	 */
+	public record Result(Status status, VaultSession session, long retryAfterMillis, int attemptsLeft) {
+	}
+
+	private static final Counter UPGRADE_FAILURES = Metrics.counter("auth.upgrade.failures");
+	private static final AuthService INSTANCE = new AuthService();
+
+	private final UserDAO userDao = new UserDAO();
+	private final AuditLogDAO auditDao = new AuditLogDAO();
+	private final PasswordChangeService passwordChangeService = new PasswordChangeService();
+	private final ConcurrentHashMap<String, Attempts> attempts = new ConcurrentHashMap<>();
+	private final Set<String> upgrading = ConcurrentHashMap.newKeySet();
+	private final ThreadPoolExecutor executor;
+	private final User dummy;
+
+	public static AuthService get() {
+		return INSTANCE;
+	}
+
+	private AuthService() {
+		int threads = Runtime.getRuntime().availableProcessors();
+		AtomicInteger n = new AtomicInteger();
+		// A full queue makes the submitting thread run the check itself: back-pressure, not rejection
+		executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(threads * 16),
+				r -> {
+					Thread t = new Thread(r, "vault-auth-" + n.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		dummy = new User("", "", "", PasswordUtil.hashPassword("unused-" + System.nanoTime()), "USER",
+				CryptoUtil.b64(CryptoUtil.generateSalt()));
+		dummy.setKdfIterations(CostCalibrator.costs().kdfIterations());
+	}
+
+	/**
+	 * Checks the credentials on the auth pool. {@code password} is wiped once
+	 * the check has finished.
+	 */
+	public CompletableFuture<Result> login(String email, char[] password) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return authenticate(email, password);
+			} catch (Exception e) {
+				throw new IllegalStateException("Login failed", e);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Checks the credentials on the calling thread. Wipes {@code password}.
+	 */
+	public Result authenticate(String email, char[] password) throws Exception {
+		String key = email.trim().toLowerCase(Locale.ROOT);
+		long now = System.currentTimeMillis();
+		long[] locked = { 0 };
+		// compute() so that cleanup cannot drop the entry between lookup and acquire
+		Attempts account = attempts.compute(key, (k, a) -> {
+			Attempts current = a != null ? a : new Attempts();
+			locked[0] = current.acquire(now);
+			return current;
+		});
+		if (locked[0] > 0) {
+			Arrays.fill(password, '\0');
+			auditDao.log("LOGIN_LOCKED", key, key);
+			return new Result(Status.LOCKED, null, locked[0], 0);
+		}
+
+		VaultSession session = null;
+		try {
+			User user = userDao.findByEmail(key);
+			session = SessionKeyService.open(user != null ? user : dummy, password);
+			if (user == null && session != null) {
+				session.close(); // cannot happen: the dummy hash is of a password nobody knows
+				session = null;
+			}
+			if (session != null) upgradeLater(session, password);
+		} finally {
+			Arrays.fill(password, '\0');
+			if (session == null) account.release(System.currentTimeMillis(), false);
+		}
+
+		if (session != null) {
+			account.release(System.currentTimeMillis(), true);
+			auditDao.log("LOGIN_SUCCESS", key, key);
+			return new Result(Status.SUCCESS, session, 0, MAX_FAILURES);
+		}
+
+		auditDao.log("LOGIN_FAIL", key, key);
+		cleanupIfLarge();
+		long lockedNow = account.lockedFor(System.currentTimeMillis());
+		return lockedNow > 0 ? new Result(Status.LOCKED, null, lockedNow, 0)
+				: new Result(Status.INVALID, null, 0, account.attemptsLeft(System.currentTimeMillis()));
+	}
+
+	/**
+	 * Queues a re-hash and re-key of the account on the auth pool if its stored
+	 * costs are below the calibrated ones, with a copy of the password that the
+	 * task wipes. The login returns at once; the session key is replaced in
+	 * place when the re-key commits. Skipped when the pool is saturated or an
+	 * upgrade of the account is already queued: the next login tries again.
+	 */
+	private void upgradeLater(VaultSession session, char[] password) {
+		User user = session.getUser();
+		boolean rekey = CostCalibrator.isOutdated(SessionKeyService.kdfIterations(user));
+		if (!rekey && !CostCalibrator.isOutdated(user.getPassword())) return;
+		// A full queue would make this thread run the task itself (CallerRunsPolicy)
+		if (executor.getQueue().remainingCapacity() == 0 || !upgrading.add(user.getEmail())) return;
+		char[] copy = password.clone();
+		executor.execute(() -> {
+			try {
+				upgrade(session, copy, rekey);
+			} finally {
+				Arrays.fill(copy, '\0');
+				upgrading.remove(user.getEmail());
+			}
+		});
+	}
+
+	private void upgrade(VaultSession session, char[] password, boolean rekey) {
+		User user = session.getUser();
+		String email = user.getEmail();
+		try {
+			if (rekey) {
+				// A new KDF cost means a new vault key: re-wrap everything under it
+				passwordChangeService.rekey(user, session.getKey(), password);
+			} else {
+				String hash = PasswordUtil.hashPassword(new String(password));
+				if (!userDao.updatePasswordHash(email, user.getPassword(), hash)) {
+					throw new IllegalStateException("Password of " + email + " changed during the upgrade");
+				}
+				user.setPassword(hash);
+			}
+			auditDao.log("CREDENTIAL_UPGRADE", email, email);
+		} catch (Exception e) {
+			// The account and session are as they were; the next login tries again
+			UPGRADE_FAILURES.increment();
+			auditDao.log("CREDENTIAL_UPGRADE_FAIL", email, email);
+		}
+	}
+
+	/** Remaining lock time for {@code email} in milliseconds, 0 if it may log in. */
+	public long lockedFor(String email) {
+		Attempts account = attempts.get(email.trim().toLowerCase(Locale.ROOT));
+		return account == null ? 0 : account.lockedFor(System.currentTimeMillis());
+	}
+
+	private void cleanupIfLarge() {
+		if (attempts.size() < CLEANUP_THRESHOLD) return;
+		long now = System.currentTimeMillis();
+		for (String key : attempts.keySet()) {
+			attempts.computeIfPresent(key, (k, a) -> a.isIdle(now) ? null : a);
+		}
+	}
+
+	// =========================
+	// PER-ACCOUNT STATE
+	// =========================
+	/**
+	 * Failure times within the window plus checks in progress for one email.
+	 * Guarded by its own monitor, so different accounts never contend.
+	 */
+	static final class Attempts {
+		private final ArrayDeque<Long> failures = new ArrayDeque<>();
+		private int inFlight;
+		private int lockouts; // consecutive, drives the backoff
+		private long lockedUntil;
+
+		/** Takes a slot for a check. Returns 0 if granted, otherwise the time left until one may be. */
+		synchronized long acquire(long now) {
+			long wait = lockedFor(now);
+			if (wait > 0) return wait;
+			if (failures.size() + inFlight >= MAX_FAILURES) {
+				// Checks still running for this email could use up the allowance
+				return IN_FLIGHT_RETRY_MS;
+			}
+			inFlight++;
+			return 0;
+		}
+
+		synchronized void release(long now, boolean success) {
+			inFlight--;
+			if (success) {
+				failures.clear();
+				lockouts = 0;
+				lockedUntil = 0;
+				return;
+			}
+			expire(now);
+			if (lockouts > 0 && now - lockedUntil > WINDOW_MS) lockouts = 0; // quiet for a window: start over
+			failures.addLast(now);
+			if (failures.size() >= MAX_FAILURES) {
+				long lock = Math.min(MAX_LOCK_MS, BASE_LOCK_MS << Math.min(lockouts, 20));
+				lockouts++;
+				lockedUntil = now + lock;
+				failures.clear();
+			}
+		}
+
+		synchronized long lockedFor(long now) {
+			expire(now);
+			return Math.max(0, lockedUntil - now);
+		}
+
+		synchronized int attemptsLeft(long now) {
+			expire(now);
+			return Math.max(0, MAX_FAILURES - failures.size());
+		}
+
+		synchronized boolean isIdle(long now) {
+			expire(now);
+			return inFlight == 0 && failures.isEmpty() && lockedUntil <= now
+					&& (lockouts == 0 || now - lockedUntil > WINDOW_MS);
+		}
+
+		private void expire(long now) {
+			while (!failures.isEmpty() && failures.peekFirst() <= now - WINDOW_MS) failures.pollFirst();
+		}
+	}
+}
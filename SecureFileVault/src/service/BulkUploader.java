@@ -0,0 +1,242 @@
+package service;
+
+import dao.FileDAO;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Imports many files and directory trees as a pipeline: a walker thread lists
+ * the files, a bounded pool reads and encrypts them in parallel, and the
+ * calling thread stores the results in batched transactions. The queues
+ * between the stages are bounded, so memory stays flat however large the
+ * import. Originals are queued for wiping only after their batch has been
+ * committed.
+ * Duplicate content, within the import or already in the vault, is stored
+ * once.
+ */
+public class BulkUploader {
+
+	public static final int BATCH_SIZE = Integer.getInteger("vault.bulk.batch", 500);
+	static final int DEFAULT_WORKERS = Integer.getInteger("vault.bulk.workers",
+			Math.max(2, Runtime.getRuntime().availableProcessors()));
+	private static final int QUEUE_CAPACITY = 256;
+	private static final long BATCH_MAX_WAIT_MS = 2000;
+	private static final int MAX_REPORTED_FAILURES = 100;
+
+	/** One committed batch: files stored, failures since the previous batch, plaintext bytes. */
+	public record BatchSummary(int batch, int stored, int failed, long bytes, long millis) {
+	}
+
+	/** The whole import. {@code failures} holds the first few "path: reason" messages. */
+	public record Result(int stored, int failed, long bytes, boolean cancelled, List<String> failures) {
+	}
+
+	private record Source(Path path, String name, long size) {
+	}
+
+	private record Encrypted(Source source, FileDAO.NewFile file) {
+	}
+
+	private static final Source END = new Source(null, null, 0);
+	private static final Encrypted DONE = new Encrypted(null, null);
+
+	private final VaultFileService service;
+	private final int workers;
+	private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+	private final AtomicInteger failed = new AtomicInteger();
+
+	BulkUploader(VaultFileService service, int workers) {
+		this.service = service;
+		this.workers = workers;
+	}
+
+	/**
+	 * Runs the import on the calling thread, which does the DB writes while the
+	 * walker and encryption workers run alongside. Unreadable or failing files
+	 * are skipped and reported; cancelling stops the walk, abandons files not
+	 * yet encrypted and still commits the ones already done.
+	 */
+	Result run(List<Path> roots, JobContext ctx, Consumer<BatchSummary> onBatch) throws InterruptedException {
+		BlockingQueue<Source> pending = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		BlockingQueue<Encrypted> encrypted = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		AtomicInteger n = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(workers + 1, r -> {
+			Thread t = new Thread(r, "vault-bulk-" + n.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			pool.execute(() -> walk(roots, pending, ctx));
+			for (int i = 0; i < workers; i++) {
+				pool.execute(() -> encryptLoop(pending, encrypted, ctx));
+			}
+			return commitLoop(encrypted, ctx, onBatch);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	// =========================
+	// STAGE 1: WALK
+	// =========================
+	private void walk(List<Path> roots, BlockingQueue<Source> pending, JobContext ctx) {
+		long[] total = { 0 };
+		try {
+			for (Path root : roots) {
+				if (ctx.isCancelled()) break;
+				Path base = root.toAbsolutePath().getParent();
+				try {
+					Files.walkFileTree(root, new SimpleFileVisitor<>() {
+						@Override
+						public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+							if (ctx.isCancelled()) return FileVisitResult.TERMINATE;
+							if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+							String name = base == null ? file.getFileName().toString()
+									: base.relativize(file.toAbsolutePath()).toString().replace('\\', '/');
+							try {
+								pending.put(new Source(file, name, attrs.size()));
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+								throw new InterruptedIOException();
+							}
+							total[0] += attrs.size();
+							ctx.setTotal(total[0]);
+							return FileVisitResult.CONTINUE;
+						}
+
+						@Override
+						public FileVisitResult visitFileFailed(Path file, IOException e) {
+							fail(file, e);
+							return FileVisitResult.CONTINUE;
+						}
+					});
+				} catch (InterruptedIOException e) {
+					return;
+				} catch (IOException e) {
+					fail(root, e);
+				}
+			}
+		} finally {
+			try {
+				for (int i = 0; i < workers; i++) pending.put(END);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	// =========================
+	// STAGE 2: ENCRYPT
+	// =========================
+	private void encryptLoop(BlockingQueue<Source> pending, BlockingQueue<Encrypted> encrypted, JobContext ctx) {
+		try {
+			for (Source src; (src = pending.take()) != END;) {
+				if (ctx.isCancelled()) continue; // drain so the walker can finish
+				try {
+					encrypted.put(new Encrypted(src, service.encryptToVault(src.path(), src.name(), ctx)));
+				} catch (InterruptedException e) {
+					throw e;
+				} catch (Exception e) {
+					if (!ctx.isCancelled()) fail(src.path(), e);
+				}
+			}
+			encrypted.put(DONE);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// =========================
+	// STAGE 3: COMMIT
+	// =========================
+	private Result commitLoop(BlockingQueue<Encrypted> encrypted, JobContext ctx, Consumer<BatchSummary> onBatch)
+			throws InterruptedException {
+		List<Encrypted> batch = new ArrayList<>(BATCH_SIZE);
+		int running = workers;
+		int batchNo = 0;
+		int stored = 0;
+		int failedReported = 0;
+		long bytes = 0;
+		long batchStart = System.nanoTime();
+
+		while (running > 0 || !batch.isEmpty()) {
+			Encrypted e = running > 0 ? encrypted.poll(BATCH_MAX_WAIT_MS, TimeUnit.MILLISECONDS) : null;
+			if (e == DONE) {
+				running--;
+				continue;
+			}
+			if (e != null) batch.add(e);
+
+			// Commit full batches, and partial ones when large files keep it filling slowly
+			boolean waitedLong = System.nanoTime() - batchStart > TimeUnit.MILLISECONDS.toNanos(BATCH_MAX_WAIT_MS);
+			if (batch.size() >= BATCH_SIZE || (!batch.isEmpty() && (e == null || waitedLong || running == 0))) {
+				Committed committed = commit(batch);
+				stored += committed.files();
+				bytes += committed.bytes();
+				int failedNow = failed.get();
+				onBatch.accept(new BatchSummary(++batchNo, committed.files(), failedNow - failedReported, committed.bytes(),
+						TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batchStart)));
+				failedReported = failedNow;
+				batch.clear();
+				batchStart = System.nanoTime();
+			}
+		}
+		return new Result(stored, failed.get(), bytes, ctx.isCancelled(), List.copyOf(failures));
+	}
+
+	private record Committed(int files, long bytes) {
+	}
+
+	/**
+	 * Stores one batch in a single transaction, then audits it and queues the
+	 * originals for wiping. If the insert fails, the new blobs are removed and
+	 * the originals are kept.
+	 */
+	private Committed commit(List<Encrypted> batch) {
+		String owner = service.getOwnerEmail();
+		List<FileDAO.NewFile> files = new ArrayList<>(batch.size());
+		for (Encrypted e : batch) files.add(e.file());
+		List<String> orphans;
+		try {
+			orphans = service.fileDao().insertFiles(owner, files);
+		} catch (RuntimeException ex) {
+			for (Encrypted e : batch) {
+				service.discard(e.file());
+				fail(e.source().path(), ex);
+			}
+			return new Committed(0, 0);
+		}
+		for (String orphan : orphans) service.deleteBlob(orphan);
+		long bytes = 0;
+		List<Path> originals = new ArrayList<>(batch.size());
+		for (Encrypted e : batch) {
+			service.auditDao().log("FILE_UPLOAD", e.file().originalName(), owner);
+			originals.add(e.source().path());
+			bytes += e.source().size();
+		}
+		SecureWipeService.get().enqueue(originals, owner);
+		return new Committed(batch.size(), bytes);
+	}
+
+	private void fail(Path path, Exception e) {
+		if (failed.incrementAndGet() <= MAX_REPORTED_FAILURES) {
+			failures.add(path + ": " + e.getMessage());
+		}
+	}
+}
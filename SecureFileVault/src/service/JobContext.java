@@ -0,0 +1,48 @@
+package service;
+
+import security.CryptoProgress;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress and cancellation handle for one background job. Passed to the
+ * crypto paths as their {@link CryptoProgress}; once cancelled, the next
+ * progress report throws and the operation unwinds.
+ */
+public class JobContext implements CryptoProgress {
+
+	private final LongAdder done = new LongAdder();
+	private final long startNanos = System.nanoTime();
+	private volatile long total = -1;
+	private volatile boolean cancelled;
+	private volatile String status;
+
+	@Override
+	public void advance(long bytes) throws IOException {
+		checkCancelled();
+		done.add(bytes);
+	}
+
+	public void checkCancelled() throws InterruptedIOException {
+		if (cancelled) throw new InterruptedIOException("Cancelled");
+	}
+
+	public void cancel() { cancelled = true; }
+	public boolean isCancelled() { return cancelled; }
+
+	/** Expected number of bytes, or -1 when unknown. */
+	public void setTotal(long total) { this.total = total; }
+	public long getTotal() { return total; }
+	public long getDone() { return done.sum(); }
+
+	/** Short note on the job's progress, e.g. the last batch committed; shown with its title. */
+	public void setStatus(String status) { this.status = status; }
+	public String getStatus() { return status; }
+
+	public double bytesPerSecond() {
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		return seconds <= 0 ? 0 : getDone() / seconds;
+	}
+}
@@ -0,0 +1,117 @@
+package service;
+
+import dao.AuditLogDAO;
+import dao.FileDAO;
+import dao.UserDAO;
+import db.DbConnection;
+import model.User;
+import security.ContentDigest;
+import security.CostCalibrator;
+import security.CryptoUtil;
+import security.KeyWrap;
+import security.PasswordUtil;
+import security.SessionKeyService;
+import security.VaultKey;
+import security.VaultSession;
+
+import javax.crypto.SecretKey;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Changes a user's password. Files are encrypted under their own data keys, so
+ * only the wrapped keys are rewritten, never the files themselves: the cost
+ * grows with the number of files, not with their size.
+ */
+public class PasswordChangeService {
+
+	private final UserDAO userDao = new UserDAO();
+	private final FileDAO fileDao = new FileDAO();
+	private final AuditLogDAO auditDao = new AuditLogDAO();
+
+	/**
+	 * Verifies {@code current}, then re-keys the account for {@code next}.
+	 * Returns false if {@code current} is wrong. The session key is replaced
+	 * in place, so the session stays usable; the caller may still log out.
+	 */
+	public boolean changePassword(VaultSession session, char[] current, char[] next) throws Exception {
+		User user = session.getUser();
+		String email = user.getEmail();
+		if (!PasswordUtil.verifyPassword(current, user.getPassword())) {
+			auditDao.log("PASSWORD_CHANGE_FAIL", email, email);
+			return false;
+		}
+
+		rekey(user, session.getKey(), next);
+		auditDao.log("PASSWORD_CHANGE", email, email);
+		return true;
+	}
+
+	/**
+	 * Stores a new password hash, vault salt and PBKDF2 cost for
+	 * {@code password}, using the calibrated costs, and re-wraps every data key
+	 * of the user under the new vault key, all in one transaction. Also used to
+	 * upgrade outdated costs after login, with the unchanged password. The slow
+	 * derivations run first; the transaction then waits for running transfers
+	 * on {@code key} (see {@link VaultKey#replace}), which holds the new key
+	 * once it commits. Fails without changes if the stored credentials are no
+	 * longer the ones in {@code user}, e.g. after a concurrent password change.
+	 * Updates {@code user}.
+	 */
+	public void rekey(User user, VaultKey key, char[] password) throws Exception {
+		String email = user.getEmail();
+		String oldSalt = user.getVaultSalt();
+		CostCalibrator.Costs costs = CostCalibrator.costs();
+		byte[] salt = CryptoUtil.generateSalt();
+		VaultKey newKek = SessionKeyService.deriveAsync(password, salt, costs.kdfIterations()).get();
+		String hash = PasswordUtil.hashPassword(new String(password));
+
+		try {
+			key.replace(newKek, () -> {
+				rewrap(email, oldSalt, key, newKek, hash, CryptoUtil.b64(salt), costs.kdfIterations());
+				// Evicted only now: a reader that cached a row before the commit must not keep it
+				fileDao.evictOwner(email);
+				return null;
+			});
+		} finally {
+			newKek.destroy();
+		}
+
+		user.setPassword(hash);
+		user.setVaultSalt(CryptoUtil.b64(salt));
+		user.setKdfIterations(costs.kdfIterations());
+	}
+
+	private void rewrap(String email, String oldSalt, SecretKey oldKek, SecretKey newKek, String hash, String salt,
+			int kdfIterations) throws Exception {
+		try (Connection conn = DbConnection.connect()) {
+			conn.setAutoCommit(false);
+			try {
+				String wrappedDedup = userDao.findDedupKey(conn, email);
+				SecretKey dedupKey = wrappedDedup != null
+						? KeyWrap.unwrap(wrappedDedup, oldKek, ContentDigest.HMAC_ALGO)
+						: ContentDigest.deriveKey(oldKek);
+
+				List<String[]> rewrapped = new ArrayList<>();
+				for (String[] row : fileDao.findWrappedKeys(conn, email)) {
+					// Files from before envelope encryption use the old vault key as their data key
+					SecretKey dataKey = row[1] == null ? oldKek : KeyWrap.unwrap(row[1], oldKek);
+					rewrapped.add(new String[] { row[0], KeyWrap.wrap(dataKey, newKek) });
+				}
+
+				if (userDao.updatePasswordByEmail(conn, email, oldSalt, hash, salt, kdfIterations,
+						KeyWrap.wrap(dedupKey, newKek)) == 0) {
+					throw new IllegalStateException("Credentials of " + email + " changed during the re-key");
+				}
+				fileDao.updateWrappedKeys(conn, email, rewrapped);
+				conn.commit();
+			} catch (Exception e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(true);
+			}
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package service;
+
+import dao.AuditLogDAO;
+import dao.WipeQueueDAO;
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.Timer;
+import security.CryptoContext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Overwrites and deletes plaintext originals once they are safely stored in
+ * the vault. Wipes run on one background thread, so uploads do not wait for
+ * them, and each file is recorded in {@code wipe_queue} before it is queued:
+ * wipes interrupted by a crash or exit are resumed on the next start.
+ * <p>
+ * Each file is overwritten in place in {@link #BUFFER_SIZE} steps from a
+ * single reused direct buffer, {@code vault.wipe.passes} times (default 1),
+ * alternating random data and zeros and ending with zeros, with a sync to disk
+ * after every pass. Failures are written to the audit log and retried on the
+ * next start.
+ * <p>
+ * The size, modification time and file key of each original are recorded
+ * with it. A file that no longer matches them when its turn comes, e.g. one
+ * the user has since replaced at the same path, is left alone.
+ */
+public final class SecureWipeService {
+
+	public static final int PASSES = Math.max(1, Integer.getInteger("vault.wipe.passes", 1));
+	static final int BUFFER_SIZE = 1024 * 1024;
+
+	private static final Timer WIPE_TIMER = Metrics.timer("wipe.file");
+	private static final Counter WIPE_FAILURES = Metrics.counter("wipe.failures");
+
+	private static final SecureWipeService INSTANCE = new SecureWipeService();
+
+	private final WipeQueueDAO queueDao = new WipeQueueDAO();
+	private final AuditLogDAO auditDao = new AuditLogDAO();
+	private final LinkedBlockingQueue<WipeQueueDAO.Entry> queue = new LinkedBlockingQueue<>();
+	private final Object idle = new Object();
+	private int outstanding; // guarded by idle
+	private boolean resumed;
+	private Thread worker;
+
+	// Owned by the worker thread
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final byte[] noise = new byte[BUFFER_SIZE];
+
+	public static SecureWipeService get() {
+		return INSTANCE;
+	}
+
+	private SecureWipeService() {
+		Metrics.gauge("wipe.pending", this::pendingCount);
+	}
+
+	/** Requeues wipes left over from an earlier run. Called once at startup. */
+	public synchronized void resume() {
+		if (resumed) return;
+		resumed = true;
+		List<WipeQueueDAO.Entry> pending = queueDao.findAll();
+		for (WipeQueueDAO.Entry entry : pending) offer(entry);
+		if (!pending.isEmpty()) System.out.println("Resuming " + pending.size() + " pending secure wipe(s).");
+	}
+
+	/**
+	 * Queues files for wiping. They are recorded before this returns, so they
+	 * will be wiped even if the process stops first. Files that are already
+	 * gone are skipped.
+	 */
+	public void enqueue(List<Path> files, String ownerEmail) {
+		List<WipeQueueDAO.Entry> entries = new ArrayList<>(files.size());
+		for (Path f : files) {
+			Path file = f.toAbsolutePath();
+			try {
+				BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				entries.add(new WipeQueueDAO.Entry(file.toString(), ownerEmail, attrs.size(),
+						attrs.lastModifiedTime().toMillis(), fileKey(attrs), false));
+			} catch (NoSuchFileException gone) {
+				// nothing left to wipe
+			} catch (IOException e) {
+				// Cannot tell later whether it is still this file, so never wipe it
+				auditDao.log("SECURE_WIPE_SKIPPED", file.toString(), ownerEmail);
+			}
+		}
+		queueDao.addAll(entries);
+		for (WipeQueueDAO.Entry entry : entries) offer(entry);
+	}
+
+	/** Waits until the queue is empty, up to {@code timeoutMs}. Returns whether it is. */
+	public boolean awaitIdle(long timeoutMs) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		synchronized (idle) {
+			while (outstanding > 0) {
+				long left = deadline - System.currentTimeMillis();
+				if (left <= 0) return false;
+				idle.wait(left);
+			}
+			return true;
+		}
+	}
+
+	public int pendingCount() {
+		synchronized (idle) {
+			return outstanding;
+		}
+	}
+
+	private void offer(WipeQueueDAO.Entry task) {
+		synchronized (idle) {
+			outstanding++;
+		}
+		queue.offer(task);
+		startIfNeeded();
+	}
+
+	private synchronized void startIfNeeded() {
+		if (worker != null && worker.isAlive()) return;
+		worker = new Thread(this::drain, "vault-wipe");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	// =========================
+	// WORKER
+	// =========================
+	private void drain() {
+		try {
+			while (true) {
+				WipeQueueDAO.Entry task = queue.take();
+				long start = System.nanoTime();
+				try {
+					long bytes = wipe(task);
+					if (bytes >= 0) {
+						WIPE_TIMER.record(System.nanoTime() - start, bytes);
+					} else {
+						auditDao.log("SECURE_WIPE_SKIPPED", task.path(), task.ownerEmail());
+					}
+					queueDao.remove(task.path());
+				} catch (NoSuchFileException gone) {
+					queueDao.remove(task.path());
+				} catch (Exception e) {
+					// Left in wipe_queue, so the next start tries again
+					System.err.println("Secure wipe failed for " + task.path() + ": " + e);
+					WIPE_FAILURES.increment();
+					auditDao.log("SECURE_WIPE_FAIL", task.path(), task.ownerEmail());
+				} finally {
+					synchronized (idle) {
+						if (--outstanding == 0) idle.notifyAll();
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Overwrites and deletes the queued file; returns the number of bytes
+	 * written, or -1 if the file is no longer the one that was queued.
+	 */
+	private long wipe(WipeQueueDAO.Entry task) throws IOException {
+		Path file = Path.of(task.path());
+		long length;
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS)) {
+			if (!isQueuedFile(task, file)) return -1;
+			queueDao.markStarted(task.path());
+			length = ch.size();
+			for (int pass = 0; pass < PASSES; pass++) {
+				boolean zeros = (PASSES - 1 - pass) % 2 == 0; // the last pass writes zeros
+				fill(zeros, (int) Math.min(length, BUFFER_SIZE));
+				for (long pos = 0; pos < length; ) {
+					if (!zeros && pos > 0) fill(false, (int) Math.min(length - pos, BUFFER_SIZE));
+					buffer.rewind().limit((int) Math.min(length - pos, BUFFER_SIZE));
+					while (buffer.hasRemaining()) {
+						pos += ch.write(buffer, pos);
+					}
+				}
+				ch.force(false); // the size never changes, so syncing the data is enough
+			}
+		}
+		Files.delete(file);
+		return length * PASSES;
+	}
+
+	/**
+	 * Whether {@code file} still has the size, modification time and file key
+	 * recorded when it was queued. The modification time is not compared for a
+	 * wipe that was interrupted, since the overwrite itself changed it.
+	 */
+	private static boolean isQueuedFile(WipeQueueDAO.Entry task, Path file) throws IOException {
+		BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		return attrs.size() == task.size() && Objects.equals(fileKey(attrs), task.fileKey())
+				&& (task.started() || attrs.lastModifiedTime().toMillis() == task.modifiedMillis());
+	}
+
+	private static String fileKey(BasicFileAttributes attrs) {
+		Object key = attrs.fileKey();
+		return key == null ? null : key.toString();
+	}
+
+	/** Prepares the first {@code n} bytes of the buffer with zeros or fresh random data. */
+	private void fill(boolean zeros, int n) {
+		byte[] src = n == noise.length ? noise : new byte[n]; // small files: don't generate a full buffer of noise
+		if (zeros) {
+			Arrays.fill(src, 0, n, (byte) 0);
+		} else {
+			CryptoContext.random().nextBytes(src);
+		}
+		buffer.clear();
+		buffer.put(0, src, 0, n);
+	}
+}
@@ -0,0 +1,314 @@
+package service;
+
+import dao.AuditLogDAO;
+import dao.FileDAO;
+import dao.UserDAO;
+import security.ChunkedCipher;
+import security.Codec;
+import security.ContentDigest;
+import security.CryptoIoMode;
+import security.CryptoProgress;
+import security.CryptoUtil;
+import security.KeyWrap;
+import security.VaultKey;
+import storage.StorageBackend;
+
+import javax.crypto.SecretKey;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+/**
+ * Vault file operations for one logged-in owner, independent of the UI.
+ */
+public class VaultFileService {
+
+	public static final int SEARCH_LIMIT = 500;
+
+	private final FileDAO fileDao = new FileDAO();
+	private final UserDAO userDao = new UserDAO();
+	private final AuditLogDAO auditDao = new AuditLogDAO();
+	private final CryptoIoMode ioMode = CryptoIoMode.configured();
+	private final StorageBackend storage = StorageBackend.configured();
+	private final String ownerEmail;
+	private final SecretKey vaultKey;
+	private final SecretKey dedupKey;
+
+	public VaultFileService(String ownerEmail, SecretKey vaultKey) {
+		this.ownerEmail = ownerEmail;
+		this.vaultKey = vaultKey;
+		try {
+			this.dedupKey = withVaultKey(this::loadDedupKey);
+		} catch (Exception e) {
+			throw new IllegalStateException("Dedup key derivation failed", e);
+		}
+	}
+
+	/**
+	 * The dedup key is stored wrapped so it outlives password changes. The first
+	 * time, it is derived from the vault key as older builds did, so content
+	 * hashes already in the vault keep matching.
+	 */
+	private SecretKey loadDedupKey() throws Exception {
+		String wrapped = userDao.findDedupKey(ownerEmail);
+		if (wrapped != null) {
+			return KeyWrap.unwrap(wrapped, vaultKey, ContentDigest.HMAC_ALGO);
+		}
+		SecretKey key = ContentDigest.deriveKey(vaultKey);
+		userDao.updateDedupKey(ownerEmail, KeyWrap.wrap(key, vaultKey));
+		return key;
+	}
+
+	// =========================
+	// UPLOAD
+	// =========================
+	/**
+	 * Encrypts {@code input} into the vault, records the new entry and queues the
+	 * original for a secure wipe. If encryption fails or is cancelled, the
+	 * partial blob is removed and the original is left untouched.
+	 */
+	public void upload(Path input, CryptoProgress progress) throws Exception {
+		withVaultKey(() -> {
+			uploadFile(input, progress);
+			return null;
+		});
+	}
+
+	private void uploadFile(Path input, CryptoProgress progress) throws Exception {
+		FileDAO.NewFile file = encryptToVault(input, input.getFileName().toString(), progress);
+		String orphan = insert(file);
+		if (orphan != null) storage.delete(orphan); // same content was already stored
+		SecureWipeService.get().enqueue(List.of(input), ownerEmail);
+		auditDao.log("FILE_UPLOAD", file.originalName(), ownerEmail);
+	}
+
+	/**
+	 * Encrypts a stream straight into the vault as {@code name}, e.g. a request
+	 * body, without staging it on disk or in memory. The content hash is taken
+	 * on the way through, so a duplicate is only recognised once it has been
+	 * encrypted; its new blob is then dropped. Returns the plaintext size.
+	 */
+	public long upload(String name, InputStream in, CryptoProgress progress) throws Exception {
+		return withVaultKey(() -> uploadStream(name, in, progress));
+	}
+
+	private long uploadStream(String name, InputStream in, CryptoProgress progress) throws Exception {
+		long[] size = { 0 };
+		FileDAO.NewFile file = encryptToVault(in, name, n -> {
+			size[0] += n;
+			progress.advance(n);
+		});
+		String orphan = insert(file);
+		if (orphan != null) storage.delete(orphan);
+		auditDao.log("FILE_UPLOAD", name, ownerEmail);
+		return size[0];
+	}
+
+	/**
+	 * Encrypts many files and whole directory trees; see {@link BulkUploader}.
+	 */
+	public BulkUploader.Result uploadAll(List<Path> roots, JobContext ctx, Consumer<BulkUploader.BatchSummary> onBatch)
+			throws Exception {
+		return uploadAll(roots, BulkUploader.DEFAULT_WORKERS, ctx, onBatch);
+	}
+
+	/** As above, with {@code workers} encryption threads. */
+	public BulkUploader.Result uploadAll(List<Path> roots, int workers, JobContext ctx,
+			Consumer<BulkUploader.BatchSummary> onBatch) throws Exception {
+		return withVaultKey(() -> new BulkUploader(this, Math.max(1, workers)).run(roots, ctx, onBatch));
+	}
+
+	/**
+	 * Encrypts {@code input} to a new blob and returns the entry to record.
+	 * Nothing is recorded yet; on failure the partial blob is removed.
+	 */
+	FileDAO.NewFile encryptToVault(Path input, String name, CryptoProgress progress) throws Exception {
+		try (InputStream in = Files.newInputStream(input)) {
+			return encryptToVault(in, name, progress);
+		}
+	}
+
+	/**
+	 * The content hash is taken on the encrypting pass, so the plaintext is read
+	 * once and the hash always matches what the blob holds. Whether the content
+	 * is already stored is decided when the entry is recorded: the insert then
+	 * points it at the existing blob and hands this one back for deletion.
+	 */
+	private FileDAO.NewFile encryptToVault(InputStream in, String name, CryptoProgress progress) throws Exception {
+		ContentDigest.Digesting digesting = ContentDigest.digesting(in, dedupKey);
+		BufferedInputStream body = new BufferedInputStream(digesting, ChunkedCipher.DEFAULT_CHUNK_SIZE);
+		SecretKey dataKey = KeyWrap.newDataKey();
+		byte[] iv = CryptoUtil.generateIV();
+		String key = storage.allocate();
+		try (OutputStream out = Files.newOutputStream(storage.resolve(key))) {
+			CryptoUtil.encrypt(body, out, dataKey, iv, Codec.choose(body), progress);
+		} catch (Exception ex) {
+			deleteBlob(key);
+			throw ex;
+		}
+		return new FileDAO.NewFile(name, key, CryptoUtil.b64(iv), KeyWrap.wrap(dataKey, vaultKey), digesting.digest());
+	}
+
+	/** Records one entry; its blob is removed if that fails. Returns the blob to delete if it was a duplicate. */
+	String insert(FileDAO.NewFile file) {
+		try {
+			return fileDao.insertFile(ownerEmail, file);
+		} catch (RuntimeException ex) {
+			discard(file);
+			throw ex;
+		}
+	}
+
+	/** Removes the blob written for an entry that could not be recorded. */
+	void discard(FileDAO.NewFile file) {
+		deleteBlob(file.encryptedPath());
+	}
+
+	/** Deletes a blob no entry refers to; failures only leave an unused file behind. */
+	void deleteBlob(String key) {
+		try {
+			storage.delete(key);
+		} catch (Exception ignored) {}
+	}
+
+	String getOwnerEmail() {
+		return ownerEmail;
+	}
+
+	FileDAO fileDao() {
+		return fileDao;
+	}
+
+	AuditLogDAO auditDao() {
+		return auditDao;
+	}
+
+	// =========================
+	// DELETE
+	// =========================
+	/**
+	 * Removes one entry. The blob is deleted only when no other entry with the
+	 * same content still refers to it.
+	 */
+	public void delete(int fileId) throws Exception {
+		String name = requireMeta(fileId)[2];
+		String unreferenced = fileDao.deleteFile(fileId, ownerEmail);
+		if (unreferenced != null) storage.delete(unreferenced);
+		auditDao.log("FILE_DELETE", name, ownerEmail);
+	}
+
+	// =========================
+	// DECRYPT
+	// =========================
+	/**
+	 * Decrypts a stored file to {@code target}. Partial output is deleted if
+	 * decryption fails or is cancelled.
+	 */
+	public void decryptTo(int fileId, Path target, CryptoProgress progress) throws Exception {
+		String[] meta = withVaultKey(() -> {
+			String[] m = requireMeta(fileId);
+			try {
+				CryptoUtil.decryptFile(storage.resolve(m[0]), target, dataKey(m), CryptoUtil.fromB64(m[1]), ioMode, progress);
+			} catch (Exception ex) {
+				Files.deleteIfExists(target); // never leave half-decrypted output behind
+				throw ex;
+			}
+			return m;
+		});
+		auditDao.log("FILE_DECRYPT", meta[2], ownerEmail);
+	}
+
+	/**
+	 * Streams a stored file's plaintext to {@code out}, e.g. to a pipe. Returns
+	 * the number of bytes written. Unlike {@link #decryptTo(int, Path, CryptoProgress)}
+	 * the output cannot be taken back if decryption fails part-way.
+	 */
+	public long decryptTo(int fileId, OutputStream out) throws Exception {
+		long written = decryptRange(fileId, 0, Long.MAX_VALUE, out);
+		auditDao.log("FILE_DECRYPT", fileName(fileId), ownerEmail);
+		return written;
+	}
+
+	public String fileName(int fileId) {
+		return requireMeta(fileId)[2];
+	}
+
+	/** Size of the stored blob, as an estimate of the work to decrypt it. */
+	public long storedSize(int fileId) throws Exception {
+		return Files.size(storage.resolve(requireMeta(fileId)[0]));
+	}
+
+	public List<String[]> listFiles() {
+		return fileDao.findFilesByOwner(ownerEmail);
+	}
+
+	/**
+	 * Files whose names or upload dates match {@code query} (see
+	 * {@link FileDAO#searchFiles}), newest first, at most {@link #SEARCH_LIMIT}.
+	 * A blank query lists every file.
+	 */
+	public List<String[]> searchFiles(String query) {
+		if (query == null || query.isBlank()) return listFiles();
+		return fileDao.searchFiles(ownerEmail, query, SEARCH_LIMIT);
+	}
+
+	// =========================
+	// BYTE-RANGE DECRYPT
+	// =========================
+	/**
+	 * Decrypts part of a stored file, e.g. the tail of a large log for a preview.
+	 * Only the chunks covering the range are read and authenticated.
+	 */
+	public byte[] decryptRange(int fileId, long offset, int length) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(length, 1024 * 1024));
+		decryptRange(fileId, offset, length, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Streams {@code length} plaintext bytes from {@code offset} into {@code out}
+	 * for partial restores. Returns the number of bytes written.
+	 */
+	public long decryptRange(int fileId, long offset, long length, OutputStream out) throws Exception {
+		return withVaultKey(() -> {
+			String[] meta = requireMeta(fileId);
+			return ChunkedCipher.decryptRange(storage.resolve(meta[0]), out, dataKey(meta), CryptoUtil.fromB64(meta[1]),
+					offset, length);
+		});
+	}
+
+	/**
+	 * Plaintext size of a stored file, or -1 when it is a legacy single-shot or
+	 * compressed file.
+	 */
+	public long plaintextLength(int fileId) throws Exception {
+		return ChunkedCipher.plaintextLength(storage.resolve(requireMeta(fileId)[0]));
+	}
+
+	/**
+	 * Runs {@code action} so that a re-key after login cannot swap the vault key
+	 * between wrapping a data key and recording it, or under a running decrypt.
+	 */
+	private <T> T withVaultKey(Callable<T> action) throws Exception {
+		return vaultKey instanceof VaultKey key ? key.use(action) : action.call();
+	}
+
+	/** Unwraps the file's data key; files from before envelope encryption use the vault key itself. */
+	private SecretKey dataKey(String[] meta) throws Exception {
+		return meta[3] == null ? vaultKey : KeyWrap.unwrap(meta[3], vaultKey);
+	}
+
+	private String[] requireMeta(int fileId) {
+		String[] meta = fileDao.getFileMetaById(fileId, ownerEmail);
+		if (meta == null) {
+			throw new IllegalArgumentException("File not found: " + fileId);
+		}
+		return meta;
+	}
+}
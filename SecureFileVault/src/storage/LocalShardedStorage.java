@@ -0,0 +1,69 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.UUID;
+
+/**
+ * Blobs on the local disk under a root directory, fanned out into two levels
+ * of hashed subdirectories ({@code 3f/a2/<uuid>.enc}) so no directory grows
+ * past a few hundred entries. Keys are relative to the root, which is set with
+ * {@code -Dvault.storage.root} (default {@code encrypted_files} in the working
+ * directory).
+ */
+public class LocalShardedStorage implements StorageBackend {
+
+	private static final LocalShardedStorage CONFIGURED = new LocalShardedStorage(
+			Path.of(System.getProperty("vault.storage.root", "encrypted_files")));
+
+	private final Path root;
+
+	public LocalShardedStorage(Path root) {
+		this.root = root.toAbsolutePath().normalize();
+	}
+
+	static LocalShardedStorage configured() {
+		return CONFIGURED;
+	}
+
+	public Path getRoot() {
+		return root;
+	}
+
+	@Override
+	public String allocate() throws IOException {
+		String key = keyFor(UUID.randomUUID() + ".enc");
+		Files.createDirectories(resolve(key).getParent());
+		return key;
+	}
+
+	@Override
+	public Path resolve(String key) {
+		Path path = Path.of(key);
+		return path.isAbsolute() ? path : root.resolve(path);
+	}
+
+	@Override
+	public void delete(String key) throws IOException {
+		Files.deleteIfExists(resolve(key));
+	}
+
+	/** The sharded key for a blob file name, e.g. {@code 3f/a2/name}. */
+	public String keyFor(String fileName) {
+		byte[] hash = sha256(fileName);
+		HexFormat hex = HexFormat.of();
+		return hex.formatHex(hash, 0, 1) + "/" + hex.formatHex(hash, 1, 2) + "/" + fileName;
+	}
+
+	private static byte[] sha256(String s) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Where encrypted blobs live. The database stores only the key returned by
+ * {@link #allocate()}, so the storage root can move without touching the rows.
+ * The crypto paths work on local files (memory mapping, positional I/O), so a
+ * backend hands out a local {@link Path} for each key.
+ */
+public interface StorageBackend {
+
+	/** Picks the key for a new blob and prepares its location; the blob is not created. */
+	String allocate() throws IOException;
+
+	/**
+	 * Local path of the blob stored under {@code key}. Absolute paths recorded by
+	 * older builds resolve to themselves until {@link StorageMigrator} has moved them.
+	 */
+	Path resolve(String key);
+
+	/** Deletes the blob; a missing blob is not an error. */
+	void delete(String key) throws IOException;
+
+	/** The backend configured for this process. */
+	static StorageBackend configured() {
+		return LocalShardedStorage.configured();
+	}
+}
@@ -0,0 +1,122 @@
+package storage;
+
+import dao.AuditLogDAO;
+import dao.FileDAO;
+import db.DbConnection;
+import db.SchemaMigrator;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Moves existing blobs into the sharded layout under the configured root and
+ * rewrites {@code encrypted_path} to the relative key. Files are moved in
+ * parallel; rows are updated in batches after their blobs have moved. Safe to
+ * re-run: a blob already at its new location just gets its rows updated.
+ * <p>
+ * Run with {@code java storage.StorageMigrator [threads]} while the vault is
+ * not in use.
+ */
+public class StorageMigrator {
+
+	private static final int BATCH_SIZE = 500;
+
+	public record Result(int moved, int inPlace, int missing, List<String> errors) {
+	}
+
+	private enum Outcome { MOVED, IN_PLACE, MISSING }
+
+	private final FileDAO fileDao = new FileDAO();
+	private final LocalShardedStorage target;
+
+	public StorageMigrator(LocalShardedStorage target) {
+		this.target = target;
+	}
+
+	public Result migrate(int threads) throws InterruptedException {
+		List<String> keys = fileDao.findBlobKeys();
+		List<String> errors = Collections.synchronizedList(new ArrayList<>());
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Outcome>> futures = new ArrayList<>(keys.size());
+			List<String> newKeys = new ArrayList<>(keys.size());
+			for (String key : keys) {
+				String newKey = target.keyFor(target.resolve(key).getFileName().toString());
+				newKeys.add(newKey);
+				futures.add(pool.submit(() -> move(key, newKey)));
+			}
+
+			int moved = 0, inPlace = 0, missing = 0;
+			List<String[]> batch = new ArrayList<>(BATCH_SIZE);
+			for (int i = 0; i < futures.size(); i++) {
+				Outcome outcome;
+				try {
+					outcome = futures.get(i).get();
+				} catch (Exception e) {
+					errors.add(keys.get(i) + ": " + e.getCause());
+					continue;
+				}
+				switch (outcome) {
+				case MOVED -> {
+					moved++;
+					batch.add(new String[] { keys.get(i), newKeys.get(i) });
+				}
+				case IN_PLACE -> inPlace++;
+				case MISSING -> {
+					missing++;
+					errors.add(keys.get(i) + ": blob not found");
+				}
+				}
+				if (batch.size() >= BATCH_SIZE) {
+					fileDao.relocateBlobs(batch);
+					batch.clear();
+				}
+			}
+			if (!batch.isEmpty()) fileDao.relocateBlobs(batch);
+			return new Result(moved, inPlace, missing, List.copyOf(errors));
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private Outcome move(String key, String newKey) throws IOException {
+		if (key.equals(newKey)) return Outcome.IN_PLACE;
+		Path from = target.resolve(key);
+		Path to = target.resolve(newKey);
+		if (!Files.exists(from)) {
+			// Moved by an earlier run that stopped before updating the rows
+			return Files.exists(to) ? Outcome.MOVED : Outcome.MISSING;
+		}
+		Files.createDirectories(to.getParent());
+		try {
+			Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from, to); // different file system: copy, then delete
+		}
+		return Outcome.MOVED;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		SchemaMigrator.migrate();
+		LocalShardedStorage storage = LocalShardedStorage.configured();
+		try {
+			Result r = new StorageMigrator(storage).migrate(threads);
+			System.out.println("Storage root: " + storage.getRoot());
+			System.out.println("Moved " + r.moved() + ", already in place " + r.inPlace() + ", missing " + r.missing());
+			r.errors().stream().limit(20).forEach(e -> System.out.println("  " + e));
+		} finally {
+			AuditLogDAO.shutdown();
+			DbConnection.shutdown();
+		}
+	}
+}
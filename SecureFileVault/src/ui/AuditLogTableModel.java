@@ -0,0 +1,86 @@
+package ui;
+
+import dao.AuditLogDAO;
+import model.AuditLogFilter;
+import model.User;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Audit log table model that loads rows a page at a time. The dialog calls
+ * {@link #loadMore()} as the user scrolls near the bottom; pages are fetched
+ * off the event thread with keyset pagination, so only what has been
+ * scrolled through is ever in memory.
+ */
+public class AuditLogTableModel extends AbstractTableModel {
+
+    private static final String[] COLUMNS = {"ID", "Action", "Target", "User", "Timestamp"};
+    private static final int PAGE_SIZE = 200;
+
+    private final AuditLogDAO auditDao;
+    private final User user;
+    private final List<Object[]> rows = new ArrayList<>();
+    private AuditLogFilter filter = AuditLogFilter.none();
+    private boolean loading;
+    private boolean exhausted;
+    private int generation; // bumps on reset so late pages of an old query are ignored
+
+    public AuditLogTableModel(AuditLogDAO auditDao, User user) {
+        this.auditDao = auditDao;
+        this.user = user;
+    }
+
+    /** Replaces the filter, clears the table and loads the first page. */
+    public void reset(AuditLogFilter newFilter) {
+        filter = newFilter;
+        generation++;
+        rows.clear();
+        loading = false;
+        exhausted = false;
+        fireTableDataChanged();
+        loadMore();
+    }
+
+    public AuditLogFilter getFilter() { return filter; }
+
+    /** Fetches the next page in the background unless one is already on its way. */
+    public void loadMore() {
+        if (loading || exhausted) return;
+        loading = true;
+        int requestGeneration = generation;
+        Object[] lastRow = rows.isEmpty() ? null : rows.get(rows.size() - 1);
+        AuditLogFilter requestFilter = filter;
+
+        new SwingWorker<List<Object[]>, Void>() {
+            @Override
+            protected List<Object[]> doInBackground() {
+                return auditDao.fetchLogsPage(user, requestFilter, lastRow, PAGE_SIZE);
+            }
+
+            @Override
+            protected void done() {
+                if (requestGeneration != generation) return;
+                loading = false;
+                try {
+                    List<Object[]> page = get();
+                    if (page.size() < PAGE_SIZE) exhausted = true;
+                    if (page.isEmpty()) return;
+                    int first = rows.size();
+                    rows.addAll(page);
+                    fireTableRowsInserted(first, rows.size() - 1);
+                } catch (Exception e) {
+                    exhausted = true;
+                }
+            }
+        }.execute();
+    }
+
+    @Override public int getRowCount() { return rows.size(); }
+    @Override public int getColumnCount() { return COLUMNS.length; }
+    @Override public String getColumnName(int c) { return COLUMNS[c]; }
+    @Override public Object getValueAt(int r, int c) { return rows.get(r)[c]; }
+    @Override public boolean isCellEditable(int r, int c) { return false; }
+}
@@ -1,9 +1,12 @@
 package ui;
 
 import dao.AuditLogDAO;
-import dao.FileDAO;
+import metrics.Metrics;
+import model.AuditLogFilter;
 import model.User;
-import security.CryptoUtil;
+import service.PasswordChangeService;
+import service.VaultFileService;
+import security.VaultSession;
 
 import javax.crypto.SecretKey;
 import javax.swing.*;
@@ -14,45 +17,47 @@ import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
-import java.io.RandomAccessFile;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 public class FileVaultFrame extends JFrame {
 
+    private static final long LOGOUT_WAIT_SECONDS = 10;
+
     private final User loggedInUser;
-    private final FileDAO fileDao = new FileDAO();
     private final AuditLogDAO auditDao = new AuditLogDAO();
     private JTable table;
     private DefaultTableModel tableModel;
     private final SecretKey vaultKey;
+    private final VaultSession session;
+    private final VaultFileService fileService;
+    private final JobPanel jobPanel = new JobPanel();
+    private final JTextField searchField = new JTextField(30);
+    private JPanel btnPanel;
+    private boolean loggingOut;
+    // Search once typing pauses, not on every keystroke
+    private final javax.swing.Timer searchDelay = new javax.swing.Timer(150, e -> loadFiles());
 
-    public FileVaultFrame(User user) {
-        this.loggedInUser = user;
-
-        try {
-            byte[] salt;
-            String dbSalt = loggedInUser.getVaultSalt();
-            
-            if (dbSalt != null && !dbSalt.isEmpty()) {
-                salt = CryptoUtil.fromB64(dbSalt);
-            } else {
-                salt = "STATIC_SALT_DEMO".getBytes(); // Fallback for old accounts
-            }
-
-            int iter = 600000;
-            this.vaultKey = CryptoUtil.deriveKey(loggedInUser.getSessionPassword(), salt, iter);
-            
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(null, "Vault initialization failed", "Error", JOptionPane.ERROR_MESSAGE);
-            throw new RuntimeException(e);
-        }
+    public FileVaultFrame(VaultSession session) {
+        this.session = session;
+        this.loggedInUser = session.getUser();
+        this.vaultKey = session.getKey();
+        this.fileService = new VaultFileService(loggedInUser.getEmail(), vaultKey);
 
         setTitle("Secure Vault - " + loggedInUser.getEmail());
-        setSize(950, 600);
+        setSize(1150, 700);
         setLocationRelativeTo(null);
-        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE); // performLogout disposes once the jobs stop
         setLayout(new BorderLayout());
 
         // --- Header ---
@@ -88,37 +93,77 @@ public class FileVaultFrame extends JFrame {
         table.setGridColor(new Color(230, 230, 230));
 
         JScrollPane scrollPane = new JScrollPane(table);
-        scrollPane.setBorder(BorderFactory.createEmptyBorder(20, 25, 20, 25)); 
+        scrollPane.setBorder(BorderFactory.createEmptyBorder(10, 25, 20, 25)); 
         scrollPane.getViewport().setBackground(Color.WHITE); 
-        add(scrollPane, BorderLayout.CENTER); 
 
-        // --- Buttons ---
-        JPanel btnPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 12, 20));
-        
+        // --- Search: name prefixes, or yyyy-mm[-dd] for the upload date ---
+        JPanel searchRow = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+        searchRow.setBorder(new EmptyBorder(15, 17, 0, 25));
+        searchField.setFont(new Font("SansSerif", Font.PLAIN, 14));
+        searchField.setToolTipText("Start of words in the name, e.g. \"rep 2024\"; yyyy-mm or yyyy-mm-dd for the upload date");
+        searchRow.add(new JLabel("Search:"));
+        searchRow.add(searchField);
+        searchDelay.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override public void insertUpdate(javax.swing.event.DocumentEvent e) { searchDelay.restart(); }
+            @Override public void removeUpdate(javax.swing.event.DocumentEvent e) { searchDelay.restart(); }
+            @Override public void changedUpdate(javax.swing.event.DocumentEvent e) { searchDelay.restart(); }
+        });
+
+        JPanel centerPanel = new JPanel(new BorderLayout());
+        centerPanel.add(searchRow, BorderLayout.NORTH);
+        centerPanel.add(scrollPane, BorderLayout.CENTER);
+        add(centerPanel, BorderLayout.CENTER); 
+
+        // --- Buttons: file actions above, account actions below ---
+        boolean isAdmin = "admin".equalsIgnoreCase(loggedInUser.getRole());
+        JPanel fileRow = new JPanel(new FlowLayout(FlowLayout.CENTER, 12, 8));
+        JPanel accountRow = new JPanel(new FlowLayout(FlowLayout.CENTER, 12, 8));
+        btnPanel = new JPanel(new GridLayout(2, 1));
+        btnPanel.setBorder(new EmptyBorder(8, 0, 12, 0));
+        btnPanel.add(fileRow);
+        btnPanel.add(accountRow);
+
         JButton uploadBtn = new JButton("Encrypt and Upload");
         JButton decryptBtn = new JButton("Decrypt and Save");
+        JButton deleteBtn = new JButton("Delete");
         JButton refreshBtn = new JButton("Refresh");
         JButton auditBtn = new JButton("View Audit Logs");
+        JButton diagnosticsBtn = new JButton("Diagnostics");
+        JButton passwordBtn = new JButton("Change Password");
         JButton logoutBtn = new JButton("Logout");
 
         styleButton(uploadBtn, new Color(46, 204, 113));
         styleButton(decryptBtn, new Color(52, 152, 219));
+        styleButton(deleteBtn, new Color(230, 126, 34));
         styleButton(refreshBtn, new Color(149, 165, 166));
         styleButton(auditBtn, new Color(155, 89, 182));
+        styleButton(diagnosticsBtn, new Color(22, 160, 133));
+        styleButton(passwordBtn, new Color(52, 73, 94));
         styleButton(logoutBtn, new Color(231, 76, 60));
 
-        btnPanel.add(uploadBtn);
-        btnPanel.add(decryptBtn);
-        btnPanel.add(refreshBtn);
-        btnPanel.add(auditBtn);
-        btnPanel.add(logoutBtn);
-        add(btnPanel, BorderLayout.SOUTH);
+        fileRow.add(uploadBtn);
+        fileRow.add(decryptBtn);
+        fileRow.add(deleteBtn);
+        fileRow.add(refreshBtn);
+        accountRow.add(auditBtn);
+        if (isAdmin) accountRow.add(diagnosticsBtn);
+        accountRow.add(passwordBtn);
+        accountRow.add(logoutBtn);
+
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(jobPanel, BorderLayout.NORTH);
+        southPanel.add(btnPanel, BorderLayout.SOUTH);
+        add(southPanel, BorderLayout.SOUTH);
 
         // Listeners
         uploadBtn.addActionListener(e -> uploadEncrypt());
         decryptBtn.addActionListener(e -> decryptSave());
+        deleteBtn.addActionListener(e -> deleteSelected());
         refreshBtn.addActionListener(e -> loadFiles());
         auditBtn.addActionListener(e -> showAuditDialog());
+        diagnosticsBtn.addActionListener(e -> showDiagnosticsDialog());
+        passwordBtn.addActionListener(e -> changePassword());
         logoutBtn.addActionListener(e -> performLogout("USER_LOGOUT"));
 
         this.addWindowListener(new WindowAdapter() {
@@ -140,39 +185,86 @@ public class FileVaultFrame extends JFrame {
     }
 
     private void performLogout(String actionType) {
-        auditDao.log(actionType, "N/A", loggedInUser.getEmail());
-        loggedInUser.setSessionPassword(null); 
-        dispose();
-        new LoginFrame();
+        if (loggingOut) return; // already waiting for the jobs to stop
+        loggingOut = true;
+
+        // The jobs still use the vault key, so the session may only wipe it once they have stopped
+        jobPanel.shutdown();
+        if (jobPanel.hasRunningJobs()) setTitle(getTitle() + " - waiting for jobs to stop...");
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        searchField.setEnabled(false);
+        for (Component row : btnPanel.getComponents()) {
+            for (Component btn : ((Container) row).getComponents()) btn.setEnabled(false);
+        }
+
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
+                jobPanel.awaitTermination(LOGOUT_WAIT_SECONDS, TimeUnit.SECONDS);
+                auditDao.log(actionType, "N/A", loggedInUser.getEmail());
+                auditDao.flush();
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                session.close(); // wipes the vault key and session password
+                dispose();
+                new LoginFrame();
+            }
+        }.execute();
     }
 
     private void loadFiles() {
-        tableModel.setRowCount(0);
-        List<String[]> files = fileDao.findFilesByOwner(loggedInUser.getEmail());
-        for (String[] f : files) tableModel.addRow(f);
+        String query = searchField.getText();
+        new SwingWorker<List<String[]>, Void>() {
+            @Override
+            protected List<String[]> doInBackground() {
+                return fileService.searchFiles(query);
+            }
+
+            @Override
+            protected void done() {
+                if (!query.equals(searchField.getText())) return; // superseded by a newer search
+                try {
+                    List<String[]> files = get();
+                    tableModel.setRowCount(0);
+                    for (String[] f : files) tableModel.addRow(f);
+                } catch (Exception ex) {
+                    JOptionPane.showMessageDialog(FileVaultFrame.this, "File list load failed");
+                }
+            }
+        }.execute();
     }
 
     private void uploadEncrypt() {
         JFileChooser chooser = new JFileChooser();
+        chooser.setMultiSelectionEnabled(true);
+        chooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
         if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
-        File input = chooser.getSelectedFile();
-        try {
-            byte[] plain = Files.readAllBytes(input.toPath());
-            byte[] iv = CryptoUtil.generateIV();
-            byte[] encrypted = CryptoUtil.encrypt(plain, vaultKey, iv);
-            File dir = new File("encrypted_files");
-            if (!dir.exists()) dir.mkdirs();
-            String stored = UUID.randomUUID() + ".enc";
-            File out = new File(dir, stored);
-            Files.write(out.toPath(), encrypted);
-            secureDelete(input);
-            fileDao.insertFile(loggedInUser.getEmail(), input.getName(), out.getAbsolutePath(), CryptoUtil.b64(iv));
-            auditDao.log("FILE_UPLOAD", input.getName(), loggedInUser.getEmail());
+        File[] selected = chooser.getSelectedFiles();
+        if (selected.length == 0) return;
+        List<Path> roots = new ArrayList<>();
+        for (File f : selected) roots.add(f.toPath());
+        String title = selected.length == 1 ? "Encrypting " + selected[0].getName()
+                : "Encrypting " + selected.length + " items";
+
+        jobPanel.submit(title, ctx -> fileService.uploadAll(roots, ctx, batch -> {
+            ctx.setStatus("batch " + batch.batch() + ": " + batch.stored() + " stored, " + batch.failed() + " failed, "
+                    + JobPanel.formatBytes(batch.bytes()) + " in " + batch.millis() + " ms");
+            SwingUtilities.invokeLater(this::loadFiles);
+        }), result -> {
             loadFiles();
-            JOptionPane.showMessageDialog(this, "File encrypted & stored.");
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Upload failed");
-        }
+            StringBuilder msg = new StringBuilder(result.cancelled() ? "Upload cancelled.\n" : "Upload finished.\n");
+            msg.append(result.stored()).append(" file(s) encrypted & stored (")
+               .append(JobPanel.formatBytes(result.bytes())).append(").");
+            if (result.failed() > 0) {
+                msg.append("\n").append(result.failed()).append(" file(s) failed:");
+                result.failures().stream().limit(10).forEach(f -> msg.append("\n  ").append(f));
+            }
+            JOptionPane.showMessageDialog(this, msg.toString(), "Upload",
+                    result.failed() > 0 ? JOptionPane.WARNING_MESSAGE : JOptionPane.INFORMATION_MESSAGE);
+        }, ex -> reportJobFailure(ex, "Upload failed"));
     }
 
     private void decryptSave() {
@@ -182,44 +274,212 @@ public class FileVaultFrame extends JFrame {
             return;
         }
         int id = Integer.parseInt(tableModel.getValueAt(row, 0).toString());
-        try {
-            String[] meta = fileDao.getFileMetaById(id, loggedInUser.getEmail());
-            if (meta == null) return;
-            JFileChooser chooser = new JFileChooser();
-            chooser.setSelectedFile(new File(meta[2]));
-            if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
-                byte[] encrypted = Files.readAllBytes(new File(meta[0]).toPath());
-                byte[] plain = CryptoUtil.decrypt(encrypted, vaultKey, CryptoUtil.fromB64(meta[1]));
-                Files.write(chooser.getSelectedFile().toPath(), plain);
-                auditDao.log("FILE_DECRYPT", meta[2], loggedInUser.getEmail());
-                JOptionPane.showMessageDialog(this, "File decrypted & restored.");
-            }
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Decryption failed");
+        String name = tableModel.getValueAt(row, 1).toString();
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File(name));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File target = chooser.getSelectedFile();
+        jobPanel.submit("Decrypting " + name, ctx -> {
+            ctx.setTotal(fileService.storedSize(id));
+            fileService.decryptTo(id, target.toPath(), ctx);
+            return null;
+        }, done -> JOptionPane.showMessageDialog(this, "File decrypted & restored."),
+           ex -> reportJobFailure(ex, "Decryption failed"));
+    }
+
+    private void deleteSelected() {
+        int row = table.getSelectedRow();
+        if (row == -1) {
+            JOptionPane.showMessageDialog(this, "Select a file first.");
+            return;
         }
+        int id = Integer.parseInt(tableModel.getValueAt(row, 0).toString());
+        String name = tableModel.getValueAt(row, 1).toString();
+        if (JOptionPane.showConfirmDialog(this, "Delete " + name + " from the vault?", "Delete",
+                JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) return;
+        jobPanel.submit("Deleting " + name, ctx -> {
+            fileService.delete(id);
+            return null;
+        }, done -> loadFiles(), ex -> reportJobFailure(ex, "Delete failed"));
     }
 
-    private void secureDelete(File file) {
-        try {
-            long len = file.length();
-            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
-                raf.seek(0);
-                raf.write(new byte[(int) len]);
-            }
-            Files.deleteIfExists(file.toPath());
-        } catch (Exception ignored) {}
+    private void changePassword() {
+        if (jobPanel.hasRunningJobs()) {
+            JOptionPane.showMessageDialog(this, "Wait for running uploads and downloads to finish first.");
+            return;
+        }
+        JPasswordField currentField = new JPasswordField(20);
+        JPasswordField newField = new JPasswordField(20);
+        JPasswordField confirmField = new JPasswordField(20);
+        JPanel form = new JPanel(new GridLayout(0, 1, 0, 4));
+        form.add(new JLabel("Current password:"));
+        form.add(currentField);
+        form.add(new JLabel("New password:"));
+        form.add(newField);
+        form.add(new JLabel("Confirm new password:"));
+        form.add(confirmField);
+        if (JOptionPane.showConfirmDialog(this, form, "Change Password", JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) return;
+
+        char[] current = currentField.getPassword();
+        char[] next = newField.getPassword();
+        char[] confirm = confirmField.getPassword();
+        boolean matches = Arrays.equals(next, confirm);
+        Arrays.fill(confirm, '0');
+        if (!matches) {
+            JOptionPane.showMessageDialog(this, "The new passwords do not match.");
+        } else if (!RegisterFrame.isStrongPassword(new String(next))) {
+            JOptionPane.showMessageDialog(this, "Password does not meet the security requirements.");
+        } else {
+            jobPanel.submit("Changing password", ctx -> {
+                try {
+                    return new PasswordChangeService().changePassword(session, current, next);
+                } finally {
+                    Arrays.fill(current, '0');
+                    Arrays.fill(next, '0');
+                }
+            }, changed -> {
+                if (!changed) {
+                    JOptionPane.showMessageDialog(this, "Current password is incorrect.");
+                    return;
+                }
+                JOptionPane.showMessageDialog(this, "Password changed. Please log in again.");
+                performLogout("PASSWORD_CHANGE_LOGOUT");
+            }, ex -> reportJobFailure(ex, "Password change failed"));
+            return;
+        }
+        Arrays.fill(current, '0');
+        Arrays.fill(next, '0');
+    }
+
+    private void reportJobFailure(Exception ex, String message) {
+        if (ex instanceof InterruptedIOException) {
+            JOptionPane.showMessageDialog(this, "Cancelled.");
+        } else {
+            JOptionPane.showMessageDialog(this, message);
+        }
     }
 
     private void showAuditDialog() {
         JDialog dialog = new JDialog(this, "System Audit Logs", true);
-        dialog.setSize(700, 450);
+        dialog.setSize(800, 500);
         dialog.setLocationRelativeTo(this);
-        String[] cols = {"ID", "Action", "Target", "User", "Timestamp"};
-        DefaultTableModel model = new DefaultTableModel(cols, 0);
+        dialog.setLayout(new BorderLayout());
+
+        AuditLogTableModel model = new AuditLogTableModel(auditDao, loggedInUser);
         JTable logTable = new JTable(model);
-        List<Object[]> logs = auditDao.fetchLogs(loggedInUser);
-        for (Object[] row : logs) model.addRow(row);
-        dialog.add(new JScrollPane(logTable));
+        JScrollPane logScroll = new JScrollPane(logTable);
+        // Fetch the next page once the user scrolls close to the bottom
+        logScroll.getVerticalScrollBar().addAdjustmentListener(e -> {
+            JScrollBar bar = (JScrollBar) e.getAdjustable();
+            if (bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - 10 * logTable.getRowHeight()) {
+                model.loadMore();
+            }
+        });
+
+        // --- Filters ---
+        boolean isAdmin = "admin".equalsIgnoreCase(loggedInUser.getRole());
+        JTextField actionField = new JTextField(10);
+        JTextField userField = new JTextField(12);
+        JTextField fromField = new JTextField(8);
+        JTextField toField = new JTextField(8);
+        userField.setEnabled(isAdmin);
+        fromField.setToolTipText("yyyy-MM-dd");
+        toField.setToolTipText("yyyy-MM-dd (inclusive)");
+        JButton applyBtn = new JButton("Apply");
+        JButton exportBtn = new JButton("Export...");
+
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 6));
+        filterPanel.add(new JLabel("Action:"));
+        filterPanel.add(actionField);
+        filterPanel.add(new JLabel("User:"));
+        filterPanel.add(userField);
+        filterPanel.add(new JLabel("From:"));
+        filterPanel.add(fromField);
+        filterPanel.add(new JLabel("To:"));
+        filterPanel.add(toField);
+        filterPanel.add(applyBtn);
+        filterPanel.add(exportBtn);
+
+        applyBtn.addActionListener(e -> {
+            try {
+                model.reset(readAuditFilter(actionField, userField, fromField, toField));
+            } catch (DateTimeParseException ex) {
+                JOptionPane.showMessageDialog(dialog, "Dates must be in yyyy-MM-dd format.");
+            }
+        });
+        exportBtn.addActionListener(e -> exportAuditLogs(dialog, model.getFilter()));
+
+        dialog.add(filterPanel, BorderLayout.NORTH);
+        dialog.add(logScroll, BorderLayout.CENTER);
+        model.reset(AuditLogFilter.none());
+        dialog.setVisible(true);
+    }
+
+    /** Admin-only view of the runtime metrics, refreshed every second while open. */
+    private void showDiagnosticsDialog() {
+        JDialog dialog = new JDialog(this, "Diagnostics", false);
+        dialog.setSize(900, 500);
+        dialog.setLocationRelativeTo(this);
+        dialog.setLayout(new BorderLayout());
+
+        MetricsTableModel model = new MetricsTableModel();
+        JTable metricsTable = new JTable(model);
+        metricsTable.getColumnModel().getColumn(0).setPreferredWidth(280);
+        model.refresh();
+
+        javax.swing.Timer refresher = new javax.swing.Timer(1000, e -> model.refresh());
+        JButton resetBtn = new JButton("Reset");
+        resetBtn.addActionListener(e -> {
+            Metrics.resetAll();
+            model.refresh();
+        });
+        JPanel bottom = new JPanel(new FlowLayout(FlowLayout.RIGHT, 6, 6));
+        bottom.add(new JLabel("Also available over JMX under \"" + Metrics.DOMAIN + "\"."));
+        bottom.add(resetBtn);
+
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override public void windowClosed(WindowEvent e) { refresher.stop(); }
+        });
+        dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+        dialog.add(new JScrollPane(metricsTable), BorderLayout.CENTER);
+        dialog.add(bottom, BorderLayout.SOUTH);
+        refresher.start();
         dialog.setVisible(true);
     }
+
+    private AuditLogFilter readAuditFilter(JTextField action, JTextField user, JTextField from, JTextField to) {
+        LocalDateTime fromTime = from.getText().isBlank() ? null
+                : LocalDate.parse(from.getText().trim()).atStartOfDay();
+        LocalDateTime toTime = to.getText().isBlank() ? null
+                : LocalDate.parse(to.getText().trim()).plusDays(1).atStartOfDay();
+        return new AuditLogFilter(action.getText(), user.getText(), fromTime, toTime);
+    }
+
+    private void exportAuditLogs(Component parent, AuditLogFilter filter) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("audit_log.csv"));
+        if (chooser.showSaveDialog(parent) != JFileChooser.APPROVE_OPTION) return;
+        File target = chooser.getSelectedFile();
+        AuditLogDAO.ExportFormat format = target.getName().toLowerCase().endsWith(".jsonl")
+                ? AuditLogDAO.ExportFormat.JSONL : AuditLogDAO.ExportFormat.CSV;
+
+        new SwingWorker<Long, Void>() {
+            @Override
+            protected Long doInBackground() throws Exception {
+                try (Writer out = Files.newBufferedWriter(target.toPath(), StandardCharsets.UTF_8)) {
+                    return auditDao.exportLogs(loggedInUser, filter, format, out);
+                }
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    JOptionPane.showMessageDialog(parent, "Exported " + get() + " audit entries.");
+                } catch (Exception ex) {
+                    JOptionPane.showMessageDialog(parent, "Export failed");
+                }
+            }
+        }.execute();
+    }
 }
\ No newline at end of file
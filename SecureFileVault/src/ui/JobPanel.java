@@ -0,0 +1,170 @@
+package ui;
+
+import service.JobContext;
+
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs vault jobs (upload, decrypt, ...) on a small worker pool so the event
+ * thread never blocks on crypto or disk, and shows one row per running job
+ * with progress, throughput and a Cancel button.
+ */
+public class JobPanel extends JPanel {
+
+    private static final int MAX_CONCURRENT_JOBS = 4;
+
+    @FunctionalInterface
+    public interface Job<T> {
+        T run(JobContext ctx) throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final List<Row> rows = new ArrayList<>();
+    private final Timer refresher = new Timer(250, e -> refreshRows());
+
+    public JobPanel() {
+        setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+        setBorder(new EmptyBorder(0, 25, 0, 25));
+        AtomicInteger n = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(MAX_CONCURRENT_JOBS, r -> {
+            Thread t = new Thread(r, "vault-job-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Starts a job in the background. Exactly one of the callbacks runs on the
+     * event thread when it ends; a cancelled job ends in {@code onFailure} with
+     * {@link JobContext#isCancelled()} set.
+     */
+    public <T> JobContext submit(String title, Job<T> job, Consumer<T> onSuccess, Consumer<Exception> onFailure) {
+        JobContext ctx = new JobContext();
+        Row row = new Row(title, ctx);
+        rows.add(row);
+        add(row.panel);
+        revalidate();
+        refresher.start();
+
+        executor.execute(() -> {
+            try {
+                T result = job.run(ctx);
+                SwingUtilities.invokeLater(() -> {
+                    finish(row);
+                    onSuccess.accept(result);
+                });
+            } catch (Exception e) {
+                SwingUtilities.invokeLater(() -> {
+                    finish(row);
+                    onFailure.accept(e);
+                });
+            }
+        });
+        return ctx;
+    }
+
+    public boolean hasRunningJobs() {
+        return !rows.isEmpty();
+    }
+
+    /**
+     * Cancels every running job and stops accepting new ones. Returns at once;
+     * call {@link #awaitTermination} off the event thread before wiping the
+     * keys the jobs use.
+     */
+    public void shutdown() {
+        for (Row row : rows) row.ctx.cancel();
+        executor.shutdown();
+    }
+
+    /**
+     * Blocks until every worker has stopped, so the keys they use can be
+     * wiped. Jobs check for cancellation between chunks; one still running
+     * after {@code grace} is interrupted and then waited for, never abandoned.
+     * Never call this on the event thread.
+     */
+    public void awaitTermination(long grace, TimeUnit unit) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(grace, unit)) break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            executor.shutdownNow();
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void finish(Row row) {
+        rows.remove(row);
+        remove(row.panel);
+        revalidate();
+        repaint();
+        if (rows.isEmpty()) refresher.stop();
+    }
+
+    private void refreshRows() {
+        for (Row row : rows) row.refresh();
+    }
+
+    // =========================
+    // ONE ROW PER JOB
+    // =========================
+    private static final class Row {
+        final JobContext ctx;
+        final JPanel panel = new JPanel(new BorderLayout(10, 0));
+        final JProgressBar bar = new JProgressBar(0, 1000);
+        final JLabel rate = new JLabel();
+        final JLabel label = new JLabel();
+        final String title;
+
+        Row(String title, JobContext ctx) {
+            this.ctx = ctx;
+            this.title = title;
+            JButton cancel = new JButton("Cancel");
+            cancel.addActionListener(e -> {
+                ctx.cancel();
+                cancel.setEnabled(false);
+            });
+            bar.setStringPainted(true);
+            rate.setPreferredSize(new Dimension(110, 20));
+            panel.setBorder(new EmptyBorder(4, 0, 4, 0));
+            panel.add(label, BorderLayout.WEST);
+            panel.add(bar, BorderLayout.CENTER);
+            JPanel east = new JPanel(new FlowLayout(FlowLayout.RIGHT, 8, 0));
+            east.add(rate);
+            east.add(cancel);
+            panel.add(east, BorderLayout.EAST);
+            refresh();
+        }
+
+        void refresh() {
+            String status = ctx.getStatus();
+            label.setText(status == null ? title : title + " (" + status + ")");
+            long total = ctx.getTotal();
+            bar.setIndeterminate(total <= 0);
+            if (total > 0) {
+                bar.setValue((int) (1000 * Math.min(1.0, (double) ctx.getDone() / total)));
+                bar.setString(formatBytes(ctx.getDone()) + " / " + formatBytes(total));
+            }
+            rate.setText(formatBytes((long) ctx.bytesPerSecond()) + "/s");
+        }
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+        if (bytes < 1024L * 1024 * 1024) return String.format("%.1f MB", bytes / (1024.0 * 1024));
+        return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
+    }
+}
@@ -1,27 +1,21 @@
 package ui;
 
 import dao.UserDAO;
-import dao.AuditLogDAO;
-import model.User;
-import security.PasswordUtil;
+import service.AuthService;
 
 import javax.swing.*;
 import javax.swing.border.CompoundBorder;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.LineBorder;
 import java.awt.*;
-import java.util.Arrays;
 
 public class LoginFrame extends JFrame {
 
     private JTextField emailField;
     private JPasswordField passwordField;
-    private int failedAttempts = 0;
-    private static final int MAX_ATTEMPTS = 3;
     private JButton loginBtn;
 
     private final UserDAO userDao = new UserDAO();
-    private final AuditLogDAO auditDao = new AuditLogDAO();
     
 
     public LoginFrame() {
@@ -99,15 +93,6 @@ public class LoginFrame extends JFrame {
 
 
     private void login() {
-
-    	if (failedAttempts >= MAX_ATTEMPTS) {
-            JOptionPane.showMessageDialog(this, 
-                "System is temporarily locked due to too many failed attempts.\nPlease wait.", 
-                "Login Locked", 
-                JOptionPane.WARNING_MESSAGE);
-            return; 
-        }
-    	
     String email = emailField.getText().trim().toLowerCase();
     char[] password = passwordField.getPassword();
 
@@ -116,55 +101,60 @@ public class LoginFrame extends JFrame {
         return;
     }
 
-    try {
-        User user = userDao.findByEmail(email);
-        String rawPassword = new String(password);
-
-        if (user == null || !PasswordUtil.verifyPassword(rawPassword, user.getPassword())) {
-            auditDao.log("LOGIN_FAIL", email, email);
-            
-            failedAttempts++;
-            
-            if (failedAttempts >= MAX_ATTEMPTS) {
-                loginBtn.setEnabled(false);
-                loginBtn.setText("Locked (10s)");
-                
-                JOptionPane.showMessageDialog(this, "Too many failed attempts. Locked for 10s.", "Locked", JOptionPane.WARNING_MESSAGE);
-                
-                int[] timeLeft = {10};
-                Timer countdownTimer = new Timer(1000, null);
-                countdownTimer.addActionListener(e -> {
-                    timeLeft[0]--;
-                    
-                    if (timeLeft[0] <= 0) {
-                        countdownTimer.stop();      
-                        failedAttempts = 0;        
-                        loginBtn.setEnabled(true);  
-                        loginBtn.setText("Login");  
-                    } else {
-                        loginBtn.setText("Locked (" + timeLeft[0] + "s)");
+    // Throttling, BCrypt and the vault key derivation all happen in AuthService, off the event thread
+    loginBtn.setEnabled(false);
+    loginBtn.setText("Verifying...");
+    new SwingWorker<AuthService.Result, Void>() {
+        @Override
+        protected AuthService.Result doInBackground() throws Exception {
+            return AuthService.get().login(email, password).get();
+        }
+
+        @Override
+        protected void done() {
+            loginBtn.setEnabled(true);
+            loginBtn.setText("Login");
+            try {
+                AuthService.Result result = get();
+                switch (result.status()) {
+                    case SUCCESS -> {
+                        dispose();
+                        new FileVaultFrame(result.session());
                     }
-                });
-                
-                countdownTimer.start();
-                
-            } else {
-                int remaining = MAX_ATTEMPTS - failedAttempts;
-                JOptionPane.showMessageDialog(this, "Invalid credentials. Attempts remaining: " + remaining, "Login Failed", JOptionPane.ERROR_MESSAGE);
+                    case LOCKED -> showLocked(result.retryAfterMillis());
+                    case INVALID -> JOptionPane.showMessageDialog(LoginFrame.this,
+                            "Invalid credentials. Attempts remaining: " + result.attemptsLeft(),
+                            "Login Failed", JOptionPane.ERROR_MESSAGE);
+                }
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                JOptionPane.showMessageDialog(LoginFrame.this, "Vault initialization failed", "Error", JOptionPane.ERROR_MESSAGE);
             }
-            return;
         }
+    }.execute();
+}
 
-        failedAttempts = 0; 
-        auditDao.log("LOGIN_SUCCESS", email, email);
-        user.setSessionPassword(password);
-        dispose();
-        new FileVaultFrame(user);
+    /** Disables the login button for the lock period, counting down on it. */
+    private void showLocked(long millis) {
+        int[] timeLeft = { (int) Math.max(1, (millis + 999) / 1000) };
+        loginBtn.setEnabled(false);
+        loginBtn.setText("Locked (" + timeLeft[0] + "s)");
 
-    } catch (Exception ex) {
-        ex.printStackTrace();
-    } finally {
-        Arrays.fill(password, '0');
+        JOptionPane.showMessageDialog(this, "Too many failed attempts. Locked for " + timeLeft[0] + "s.", "Locked", JOptionPane.WARNING_MESSAGE);
+
+        Timer countdownTimer = new Timer(1000, null);
+        countdownTimer.addActionListener(e -> {
+            timeLeft[0]--;
+
+            if (timeLeft[0] <= 0) {
+                countdownTimer.stop();
+                loginBtn.setEnabled(true);
+                loginBtn.setText("Login");
+            } else {
+                loginBtn.setText("Locked (" + timeLeft[0] + "s)");
+            }
+        });
+
+        countdownTimer.start();
     }
-}
 }
\ No newline at end of file
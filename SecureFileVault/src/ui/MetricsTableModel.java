@@ -0,0 +1,49 @@
+package ui;
+
+import metrics.Counter;
+import metrics.Gauge;
+import metrics.Metrics;
+import metrics.Timer;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of every registered metric for the diagnostics dialog, one row per
+ * metric. {@link #refresh()} re-reads the values; counters and gauges only
+ * fill the Count column.
+ */
+public class MetricsTableModel extends AbstractTableModel {
+
+    private static final String[] COLUMNS = {"Metric", "Count", "Mean ms", "p50 ms", "p95 ms", "p99 ms", "Max ms", "MB/s"};
+
+    private final List<Object[]> rows = new ArrayList<>();
+
+    public void refresh() {
+        rows.clear();
+        for (Map.Entry<String, Object> e : Metrics.all()) {
+            Object m = e.getValue();
+            if (m instanceof Timer t) {
+                rows.add(new Object[] { e.getKey(), t.getCount(), ms(t.getMeanMillis()), ms(t.getP50Millis()),
+                        ms(t.getP95Millis()), ms(t.getP99Millis()), ms(t.getMaxMillis()),
+                        t.getBytes() == 0 ? "" : String.format("%.1f", t.getBytesPerSecond() / (1024 * 1024)) });
+            } else if (m instanceof Counter c) {
+                rows.add(new Object[] { e.getKey(), c.getCount(), "", "", "", "", "", "" });
+            } else if (m instanceof Gauge g) {
+                rows.add(new Object[] { e.getKey(), g.getValue(), "", "", "", "", "", "" });
+            }
+        }
+        fireTableDataChanged();
+    }
+
+    private static String ms(double millis) {
+        return String.format("%.3f", millis);
+    }
+
+    @Override public int getRowCount() { return rows.size(); }
+    @Override public int getColumnCount() { return COLUMNS.length; }
+    @Override public String getColumnName(int c) { return COLUMNS[c]; }
+    @Override public Object getValueAt(int r, int c) { return rows.get(r)[c]; }
+}
@@ -3,6 +3,7 @@ package ui;
 import dao.AuditLogDAO;
 import dao.UserDAO;
 import model.User;
+import security.CostCalibrator;
 import security.CryptoUtil; // ✅ Added Import
 import security.PasswordUtil;
 
@@ -263,13 +264,7 @@ public class RegisterFrame extends JFrame {
     }
 
     // 3. 检查密码强度 (关键修复)
-    boolean isPassValid = pass.length() >= 8 && pass.length() <= 20 &&
-                          pass.matches(REGEX_UPPER) &&
-                          pass.matches(REGEX_LOWER) &&
-                          pass.matches(REGEX_NUMBER) &&
-                          pass.matches(REGEX_SPECIAL);
-
-    if (!isPassValid) {
+    if (!isStrongPassword(pass)) {
         JOptionPane.showMessageDialog(this, "Password does not meet the security requirements.");
         return;
     }
@@ -281,6 +276,7 @@ public class RegisterFrame extends JFrame {
         String uniqueSalt = CryptoUtil.b64(saltBytes);
 
         User user = new User(first, last, email, hashed, role, uniqueSalt);
+        user.setKdfIterations(CostCalibrator.costs().kdfIterations());
         userDao.insert(user);
         auditDao.log("USER_REGISTER", email, email);
 
@@ -293,4 +289,13 @@ public class RegisterFrame extends JFrame {
         Arrays.fill(passwordChars, '0');
     }
 }
+
+    /** Password policy shared with the change-password dialog. */
+    static boolean isStrongPassword(String pass) {
+        return pass.length() >= 8 && pass.length() <= 20 &&
+               pass.matches(REGEX_UPPER) &&
+               pass.matches(REGEX_LOWER) &&
+               pass.matches(REGEX_NUMBER) &&
+               pass.matches(REGEX_SPECIAL);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,175 @@
+package dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DaoCacheTest {
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	// =========================
+	// READ-THROUGH
+	// =========================
+	@Test
+	void loadsOnceAndServesFromCache() {
+		DaoCache<String, String> cache = new DaoCache<>("test.readThrough");
+		assertEquals("a1", cache.get("a", () -> load("a1")));
+		assertEquals("a1", cache.get("a", () -> load("a2")));
+		assertEquals(1, loads.get());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	void doesNotCacheNull() {
+		DaoCache<String, String> cache = new DaoCache<>("test.null");
+		assertNull(cache.get("a", () -> load(null)));
+		assertEquals("a1", cache.get("a", () -> load("a1")));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	void invalidationForcesAReload() {
+		DaoCache<String, String> cache = new DaoCache<>("test.invalidate");
+		cache.get("a", () -> load("a1"));
+		cache.get("b", () -> load("b1"));
+		cache.invalidate("a");
+		assertEquals("a2", cache.get("a", () -> load("a2")));
+		assertEquals("b1", cache.get("b", () -> load("b2")));
+
+		cache.invalidateIf(k -> k.equals("b"));
+		assertEquals("b3", cache.get("b", () -> load("b3")));
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+	// =========================
+	// INVALIDATE VS. PUT
+	// =========================
+	@Test
+	void loadOverlappingAnInvalidationIsNotStored() {
+		DaoCache<String, String> cache = new DaoCache<>("test.overlap");
+		// The write commits and invalidates after the read has loaded the old row
+		assertEquals("old", cache.get("a", () -> {
+			String row = load("old");
+			cache.invalidate("a");
+			return row;
+		}));
+		assertEquals(0, cache.size());
+		assertEquals("new", cache.get("a", () -> load("new")));
+	}
+
+	@Test
+	void anyInvalidationDiscardsLoadsInProgress() {
+		DaoCache<String, String> cache = new DaoCache<>("test.overlapOther");
+		cache.get("a", () -> {
+			cache.invalidateIf(k -> false);
+			return load("a1");
+		});
+		cache.get("b", () -> {
+			cache.clear();
+			return load("b1");
+		});
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	void readersRacingWritersNeverKeepAStaleValue() throws Exception {
+		DaoCache<String, Integer> cache = new DaoCache<>("test.race");
+		AtomicInteger row = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			threads.add(new Thread(() -> {
+				await(start);
+				for (int i = 0; i < 20_000; i++) {
+					cache.get("a", () -> {
+						int value = row.get();
+						Thread.yield(); // widen the gap between reading the row and storing it
+						return value;
+					});
+				}
+			}));
+		}
+		threads.add(new Thread(() -> {
+			await(start);
+			for (int i = 0; i < 2_000; i++) {
+				row.incrementAndGet(); // commit, then invalidate, as the DAOs do
+				cache.invalidate("a");
+			}
+		}));
+		for (Thread t : threads) t.start();
+		start.countDown();
+		for (Thread t : threads) t.join();
+
+		assertEquals(row.get(), cache.get("a", row::get));
+	}
+
+	// =========================
+	// CHANGE STAMP
+	// =========================
+	@Test
+	void versionChangeDropsEverything() {
+		AtomicLong version = new AtomicLong(1);
+		DaoCache<String, String> cache = new DaoCache<>("test.version", version::get);
+		cache.get("a", () -> load("a1"));
+		assertEquals("a1", cache.get("a", () -> load("a2")));
+
+		version.set(2); // another connection committed
+		assertEquals("a3", cache.get("a", () -> load("a3")));
+		assertEquals("a3", cache.get("a", () -> load("a4")));
+	}
+
+	@Test
+	void versionChangeDuringALoadDiscardsIt() {
+		AtomicLong version = new AtomicLong(1);
+		DaoCache<String, String> cache = new DaoCache<>("test.versionOverlap", version::get);
+		cache.get("b", () -> load("b1"));
+		cache.get("a", () -> load("a1"));
+		cache.invalidate("a");
+		cache.get("a", () -> {
+			version.set(2);
+			return load("a2");
+		});
+		// The next read sees the new version and drops a2's generation along with b1
+		assertEquals("a3", cache.get("a", () -> load("a3")));
+		assertEquals("b2", cache.get("b", () -> load("b2")));
+	}
+
+	@Test
+	void unreadableVersionBypassesTheCache() {
+		AtomicLong version = new AtomicLong(1);
+		DaoCache<String, String> cache = new DaoCache<>("test.versionUnknown", version::get);
+		cache.get("a", () -> load("a1"));
+
+		version.set(-1);
+		assertEquals("a2", cache.get("a", () -> load("a2")));
+		assertEquals("a3", cache.get("a", () -> load("a3")));
+
+		version.set(1); // unchanged since the entry was stored
+		assertEquals("a1", cache.get("a", () -> load("a4")));
+	}
+
+	// =========================
+	// HELPERS
+	// =========================
+	private String load(String value) {
+		loads.incrementAndGet();
+		return value;
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package security;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChunkedCipherTest {
+
+	private static final int CHUNK = 1024;
+	private static final int SEALED = CHUNK + ChunkedCipher.TAG_LENGTH;
+
+	@TempDir
+	Path dir;
+
+	private final SecretKey key = newKey();
+	private byte[] iv; // fresh for every encryption: GCM refuses to reuse one under a key
+
+	// =========================
+	// ROUND TRIP
+	// =========================
+	@Test
+	void roundTripsEverySizeAroundAChunk() throws Exception {
+		for (int size : new int[] { 0, 1, CHUNK - 1, CHUNK, CHUNK + 1, 3 * CHUNK, 3 * CHUNK + 7 }) {
+			byte[] plain = data(size);
+			assertArrayEquals(plain, decrypt(encrypt(plain, Codec.NONE)), "size " + size);
+		}
+	}
+
+	@Test
+	void roundTripsCompressed() throws Exception {
+		byte[] plain = new byte[5 * CHUNK + 3];
+		Arrays.fill(plain, (byte) 'a');
+		assertArrayEquals(plain, decrypt(encrypt(plain, Codec.DEFLATE)));
+	}
+
+	// =========================
+	// TAMPERING
+	// =========================
+	@Test
+	void rejectsTamperedLastChunk() throws Exception {
+		byte[] sealed = encrypt(data(2 * CHUNK + 100), Codec.NONE);
+		sealed[sealed.length - ChunkedCipher.TAG_LENGTH - 1] ^= 1;
+		assertThrows(AEADBadTagException.class, () -> decrypt(sealed));
+	}
+
+	@Test
+	void rejectsTamperedHeader() throws Exception {
+		byte[] sealed = encrypt(data(CHUNK + 1), Codec.NONE);
+		sealed[5] = Codec.DEFLATE.flag; // claims compression without re-sealing
+		assertThrows(AEADBadTagException.class, () -> decrypt(sealed));
+	}
+
+	@Test
+	void rejectsDroppedFinalChunk() throws Exception {
+		// Cut on a chunk boundary: what is left looks like a shorter valid file
+		byte[] sealed = encrypt(data(2 * CHUNK + 100), Codec.NONE);
+		byte[] cut = Arrays.copyOf(sealed, ChunkedCipher.HEADER_LENGTH + 2 * SEALED);
+		assertThrows(AEADBadTagException.class, () -> decrypt(cut));
+	}
+
+	@Test
+	void rejectsTruncationInsideAChunk() throws Exception {
+		byte[] sealed = encrypt(data(2 * CHUNK + 100), Codec.NONE);
+		for (int cut : new int[] { sealed.length - 1, ChunkedCipher.HEADER_LENGTH + SEALED + 5,
+				ChunkedCipher.HEADER_LENGTH + 3 }) {
+			byte[] truncated = Arrays.copyOf(sealed, cut);
+			assertThrows(AEADBadTagException.class, () -> decrypt(truncated), "cut at " + cut);
+		}
+	}
+
+	// =========================
+	// LEGACY FORMAT
+	// =========================
+	@Test
+	void readsLegacySingleShotFiles() throws Exception {
+		for (int size : new int[] { 0, 5, 3 * CHUNK }) {
+			byte[] plain = data(size);
+			assertArrayEquals(plain, decrypt(encryptLegacy(plain)), "size " + size);
+		}
+	}
+
+	@Test
+	void rejectsTamperedLegacyFile() throws Exception {
+		byte[] sealed = encryptLegacy(data(100));
+		sealed[0] ^= 1;
+		assertThrows(AEADBadTagException.class, () -> decrypt(sealed));
+	}
+
+	// =========================
+	// RANDOM ACCESS
+	// =========================
+	@Test
+	void decryptsRangesAcrossChunkBoundaries() throws Exception {
+		byte[] plain = data(3 * CHUNK + 100);
+		Path file = Files.write(dir.resolve("chunked"), encrypt(plain, Codec.NONE));
+		assertEquals(plain.length, ChunkedCipher.plaintextLength(file));
+		assertRanges(file, plain);
+	}
+
+	@Test
+	void decryptsRangesOfAFileEndingOnAChunkBoundary() throws Exception {
+		// The final chunk is empty, so the chunk holding the last bytes is not the final one
+		byte[] plain = data(2 * CHUNK);
+		Path file = Files.write(dir.resolve("chunked"), encrypt(plain, Codec.NONE));
+		assertEquals(plain.length, ChunkedCipher.plaintextLength(file));
+		assertRanges(file, plain);
+	}
+
+	@Test
+	void decryptsRangesOfCompressedAndLegacyFiles() throws Exception {
+		byte[] plain = new byte[3 * CHUNK + 100];
+		Arrays.fill(plain, (byte) 'a');
+		Path compressed = Files.write(dir.resolve("deflated"), encrypt(plain, Codec.DEFLATE));
+		assertEquals(-1, ChunkedCipher.plaintextLength(compressed));
+		assertRanges(compressed, plain);
+
+		Path legacy = Files.write(dir.resolve("legacy"), encryptLegacy(plain));
+		assertEquals(-1, ChunkedCipher.plaintextLength(legacy));
+		assertRanges(legacy, plain);
+	}
+
+	@Test
+	void rangeAuthenticatesOnlyTheChunksItReads() throws Exception {
+		byte[] plain = data(3 * CHUNK + 100);
+		byte[] sealed = encrypt(plain, Codec.NONE);
+		sealed[ChunkedCipher.HEADER_LENGTH + 1] ^= 1; // inside chunk 0
+		Path file = Files.write(dir.resolve("chunked"), sealed);
+
+		assertArrayEquals(Arrays.copyOfRange(plain, CHUNK, 2 * CHUNK), range(file, CHUNK, CHUNK));
+		assertThrows(AEADBadTagException.class, () -> range(file, CHUNK - 1, 2));
+	}
+
+	@Test
+	void rangeRejectsTamperedLastChunk() throws Exception {
+		byte[] sealed = encrypt(data(2 * CHUNK + 100), Codec.NONE);
+		sealed[sealed.length - 1] ^= 1;
+		Path file = Files.write(dir.resolve("chunked"), sealed);
+		assertThrows(AEADBadTagException.class, () -> range(file, 2 * CHUNK, 1));
+	}
+
+	private void assertRanges(Path file, byte[] plain) throws Exception {
+		int len = plain.length;
+		int[] offsets = { 0, 1, CHUNK - 1, CHUNK, CHUNK + 1, 2 * CHUNK, len - 1, len, len + 5 };
+		long[] lengths = { 0, 1, CHUNK - 1, CHUNK, CHUNK + 1, 2 * CHUNK, Long.MAX_VALUE };
+		for (int offset : offsets) {
+			for (long length : lengths) {
+				int from = Math.min(offset, len);
+				int to = (int) Math.min(len, offset + Math.min(length, len));
+				byte[] expected = Arrays.copyOfRange(plain, from, Math.max(from, to));
+				assertArrayEquals(expected, range(file, offset, length), "offset " + offset + ", length " + length);
+			}
+		}
+	}
+
+	private byte[] range(Path file, long offset, long length) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long n = ChunkedCipher.decryptRange(file, out, key, iv, offset, length);
+		assertEquals(out.size(), n);
+		return out.toByteArray();
+	}
+
+	// =========================
+	// HELPERS
+	// =========================
+	private byte[] encrypt(byte[] plain, Codec codec) throws Exception {
+		iv = CryptoUtil.generateIV();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ChunkedCipher.encrypt(new ByteArrayInputStream(plain), out, key, iv, CHUNK, codec, CryptoProgress.NONE);
+		return out.toByteArray();
+	}
+
+	/** The single-shot format written before the chunked one existed. */
+	private byte[] encryptLegacy(byte[] plain) throws Exception {
+		iv = CryptoUtil.generateIV();
+		return CryptoUtil.encrypt(plain, key, iv);
+	}
+
+	private byte[] decrypt(byte[] sealed) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ChunkedCipher.decrypt(new ByteArrayInputStream(sealed), out, key, iv, CryptoProgress.NONE);
+		return out.toByteArray();
+	}
+
+	static byte[] data(int size) {
+		byte[] b = new byte[size];
+		new Random(size).nextBytes(b);
+		return b;
+	}
+
+	static SecretKey newKey() {
+		try {
+			KeyGenerator gen = KeyGenerator.getInstance("AES");
+			gen.init(256);
+			return gen.generateKey();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package security;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CryptoIoModeTest {
+
+	private static final CryptoIoMode[] MODES = { CryptoIoMode.STREAM, CryptoIoMode.CHANNEL, CryptoIoMode.PARALLEL };
+	// Spans several chunks of every mode, ending in a short one
+	private static final int SIZE = 2 * ParallelChunkedCipher.PARALLEL_CHUNK_SIZE + 12345;
+
+	@TempDir
+	Path dir;
+
+	private final SecretKey key = ChunkedCipherTest.newKey();
+
+	@Test
+	void everyModeReadsEveryModesOutput() throws Exception {
+		for (int size : new int[] { 0, ChunkedCipher.DEFAULT_CHUNK_SIZE, SIZE }) {
+			byte[] plain = ChunkedCipherTest.data(size);
+			Path input = Files.write(dir.resolve("plain"), plain);
+			for (CryptoIoMode writer : MODES) {
+				byte[] iv = CryptoUtil.generateIV();
+				Path sealed = dir.resolve("sealed-" + writer);
+				CryptoUtil.encryptFile(input, sealed, key, iv, writer);
+				for (CryptoIoMode reader : MODES) {
+					Path output = dir.resolve("out-" + writer + "-" + reader);
+					CryptoUtil.decryptFile(sealed, output, key, iv, reader);
+					assertArrayEquals(plain, Files.readAllBytes(output), size + " bytes, " + writer + " -> " + reader);
+				}
+			}
+		}
+	}
+
+	@Test
+	void parallelHeaderNamesNoCodec() throws Exception {
+		Path input = Files.write(dir.resolve("plain"), ChunkedCipherTest.data(100));
+		Path sealed = dir.resolve("sealed");
+		ParallelChunkedCipher.encrypt(input, sealed, key, CryptoUtil.generateIV(), CryptoProgress.NONE);
+		try (FileChannel in = FileChannel.open(sealed, StandardOpenOption.READ)) {
+			assertArrayEquals(ChunkedCipher.header(Codec.NONE.flag, ParallelChunkedCipher.PARALLEL_CHUNK_SIZE),
+					ChunkedCipher.readHeader(in));
+		}
+	}
+
+	@Test
+	void everyModeRejectsTamperedLastChunk() throws Exception {
+		Path input = Files.write(dir.resolve("plain"), ChunkedCipherTest.data(SIZE));
+		byte[] iv = CryptoUtil.generateIV();
+		Path sealed = dir.resolve("sealed");
+		CryptoUtil.encryptFile(input, sealed, key, iv, CryptoIoMode.PARALLEL);
+		byte[] bytes = Files.readAllBytes(sealed);
+		bytes[bytes.length - 1] ^= 1;
+		Files.write(sealed, bytes);
+		for (CryptoIoMode reader : MODES) {
+			assertThrows(AEADBadTagException.class,
+					() -> CryptoUtil.decryptFile(sealed, dir.resolve("out"), key, iv, reader), reader.name());
+		}
+	}
+
+	@Test
+	void everyModeRejectsDroppedFinalChunk() throws Exception {
+		Path input = Files.write(dir.resolve("plain"), ChunkedCipherTest.data(SIZE));
+		byte[] iv = CryptoUtil.generateIV();
+		Path sealed = dir.resolve("sealed");
+		CryptoUtil.encryptFile(input, sealed, key, iv, CryptoIoMode.STREAM);
+		int sealedChunk = ChunkedCipher.DEFAULT_CHUNK_SIZE + ChunkedCipher.TAG_LENGTH;
+		try (FileChannel ch = FileChannel.open(sealed, StandardOpenOption.WRITE)) {
+			ch.truncate(ChunkedCipher.HEADER_LENGTH + (long) (SIZE / ChunkedCipher.DEFAULT_CHUNK_SIZE) * sealedChunk);
+		}
+		for (CryptoIoMode reader : MODES) {
+			assertThrows(AEADBadTagException.class,
+					() -> CryptoUtil.decryptFile(sealed, dir.resolve("out"), key, iv, reader), reader.name());
+		}
+	}
+
+	@Test
+	void everyModeReadsLegacyFiles() throws Exception {
+		byte[] plain = ChunkedCipherTest.data(5000);
+		byte[] iv = CryptoUtil.generateIV();
+		Path sealed = Files.write(dir.resolve("legacy.enc"), CryptoUtil.encrypt(plain, key, iv));
+		for (CryptoIoMode reader : MODES) {
+			Path output = dir.resolve("out-" + reader);
+			CryptoUtil.decryptFile(sealed, output, key, iv, reader);
+			assertArrayEquals(plain, Files.readAllBytes(output), reader.name());
+		}
+	}
+}
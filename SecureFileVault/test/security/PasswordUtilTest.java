@@ -0,0 +1,50 @@
+package security;
+
+import org.junit.jupiter.api.Test;
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PasswordUtilTest {
+
+	private static final String[] PASSWORDS = { "", "a", "correct horse battery staple", "pässwörd", "密码🔑",
+			"x".repeat(100), "lone \uD800 surrogate" };
+
+	@Test
+	void acceptsWhatJBCryptAccepts() {
+		for (String password : PASSWORDS) {
+			for (String salt : new String[] { BCrypt.gensalt(4), "$2$04$" + BCrypt.gensalt(4).substring(7) }) {
+				if (password.isEmpty() && !salt.startsWith("$2a$")) continue; // jBCrypt cannot hash no bytes at all
+				String hash = BCrypt.hashpw(password, salt);
+				assertTrue(BCrypt.checkpw(password, hash), hash);
+				assertTrue(PasswordUtil.verifyPassword(password.toCharArray(), hash), password + " / " + hash);
+			}
+		}
+	}
+
+	@Test
+	void rejectsWrongPasswords() {
+		Random random = new Random(1);
+		for (String password : PASSWORDS) {
+			String hash = BCrypt.hashpw(password, BCrypt.gensalt(4));
+			// BCrypt reads only the first 72 bytes, so change the start
+			char[] wrong = ((char) ('a' + random.nextInt(26)) + password).toCharArray();
+			assertFalse(PasswordUtil.verifyPassword(wrong, hash), password);
+		}
+	}
+
+	@Test
+	void rejectsMalformedHashes() {
+		char[] password = "secret".toCharArray();
+		String hash = BCrypt.hashpw("secret", BCrypt.gensalt(4));
+		assertFalse(PasswordUtil.verifyPassword(password, null));
+		assertFalse(PasswordUtil.verifyPassword(password, ""));
+		assertFalse(PasswordUtil.verifyPassword(password, hash.substring(0, hash.length() - 1)));
+		assertFalse(PasswordUtil.verifyPassword(password, hash.replace("$04$", "$99$")));
+		assertFalse(PasswordUtil.verifyPassword(password, hash.replace("$2a$", "$2b$")));
+		assertFalse(PasswordUtil.verifyPassword(new char[0], hash.replace("$2a$", "$2$")));
+	}
+}
@@ -0,0 +1,130 @@
+package service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static service.AuthService.BASE_LOCK_MS;
+import static service.AuthService.IN_FLIGHT_RETRY_MS;
+import static service.AuthService.MAX_FAILURES;
+import static service.AuthService.MAX_LOCK_MS;
+import static service.AuthService.WINDOW_MS;
+
+/** Lockout and backoff of {@link AuthService.Attempts}, driven by explicit clock values. */
+class AttemptsTest {
+
+	private static final long T0 = 1_000_000_000L;
+
+	private final AuthService.Attempts attempts = new AuthService.Attempts();
+
+	// =========================
+	// LOCKOUT
+	// =========================
+	@Test
+	void locksAfterMaxFailuresWithinTheWindow() {
+		long now = T0;
+		for (int i = 0; i < MAX_FAILURES - 1; i++) {
+			fail(now);
+			assertEquals(MAX_FAILURES - 1 - i, attempts.attemptsLeft(now));
+			now += 1_000;
+		}
+		assertEquals(0, attempts.lockedFor(now));
+
+		fail(now);
+		assertEquals(BASE_LOCK_MS, attempts.lockedFor(now));
+		assertEquals(BASE_LOCK_MS, attempts.acquire(now));
+		assertEquals(1, attempts.acquire(now + BASE_LOCK_MS - 1));
+		assertEquals(0, attempts.acquire(now + BASE_LOCK_MS));
+	}
+
+	@Test
+	void failuresOlderThanTheWindowDoNotCount() {
+		fail(T0);
+		fail(T0 + 1);
+		long later = T0 + WINDOW_MS + 1;
+		assertEquals(MAX_FAILURES, attempts.attemptsLeft(later));
+		fail(later);
+		assertEquals(0, attempts.lockedFor(later));
+		assertEquals(MAX_FAILURES - 1, attempts.attemptsLeft(later));
+	}
+
+	@Test
+	void successClearsFailuresAndBackoff() {
+		long unlocked = lockOut(T0);
+		fail(unlocked);
+		fail(unlocked);
+		assertEquals(0, attempts.acquire(unlocked));
+		attempts.release(unlocked, true);
+
+		assertEquals(MAX_FAILURES, attempts.attemptsLeft(unlocked));
+		assertEquals(BASE_LOCK_MS, lockOut(unlocked) - unlocked); // back to the first step
+	}
+
+	// =========================
+	// BACKOFF
+	// =========================
+	@Test
+	void lockDoublesWithEveryLockoutUpToTheCap() {
+		long now = T0;
+		long expected = BASE_LOCK_MS;
+		for (int i = 0; i < 12; i++) {
+			long unlocked = lockOut(now);
+			assertEquals(Math.min(MAX_LOCK_MS, expected), unlocked - now, "lockout " + (i + 1));
+			now = unlocked;
+			expected *= 2;
+		}
+		assertEquals(MAX_LOCK_MS, lockOut(now) - now);
+	}
+
+	@Test
+	void backoffStartsOverAfterAQuietWindow() {
+		long unlocked = lockOut(T0);
+		unlocked = lockOut(unlocked);
+		assertEquals(4 * BASE_LOCK_MS, lockOut(unlocked) - unlocked);
+
+		// A full window without failures after the last lock resets it
+		long quiet = lockOut(T0 + WINDOW_MS * 10) + WINDOW_MS + 1;
+		assertEquals(BASE_LOCK_MS, lockOut(quiet) - quiet);
+	}
+
+	// =========================
+	// CONCURRENT CHECKS
+	// =========================
+	@Test
+	void checksInFlightUseUpTheAllowance() {
+		for (int i = 0; i < MAX_FAILURES; i++) assertEquals(0, attempts.acquire(T0));
+		assertEquals(IN_FLIGHT_RETRY_MS, attempts.acquire(T0));
+
+		for (int i = 0; i < MAX_FAILURES; i++) attempts.release(T0, false);
+		assertEquals(BASE_LOCK_MS, attempts.acquire(T0));
+	}
+
+	@Test
+	void idleOnlyOnceNothingIsPending() {
+		assertTrue(attempts.isIdle(T0));
+		assertEquals(0, attempts.acquire(T0));
+		assertFalse(attempts.isIdle(T0));
+		attempts.release(T0, false);
+		assertFalse(attempts.isIdle(T0));
+		assertTrue(attempts.isIdle(T0 + WINDOW_MS));
+
+		long unlocked = lockOut(T0 + 2 * WINDOW_MS);
+		assertFalse(attempts.isIdle(unlocked)); // the backoff is still remembered
+		assertTrue(attempts.isIdle(unlocked + WINDOW_MS + 1));
+	}
+
+	// =========================
+	// HELPERS
+	// =========================
+	private void fail(long now) {
+		assertEquals(0, attempts.acquire(now));
+		attempts.release(now, false);
+	}
+
+	/** Fails until the account locks at {@code now}; returns when the lock ends. */
+	private long lockOut(long now) {
+		while (attempts.lockedFor(now) == 0) fail(now);
+		return now + attempts.lockedFor(now);
+	}
+}
@@ -0,0 +1,184 @@
+package service;
+
+import dao.AuditLogDAO;
+import dao.FileDAO;
+import dao.UserDAO;
+import db.DbConnection;
+import db.SchemaMigrator;
+import model.User;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mindrot.jbcrypt.BCrypt;
+import security.ContentDigest;
+import security.CryptoUtil;
+import security.KeyWrap;
+import security.PasswordUtil;
+import security.SessionKeyService;
+import security.VaultKey;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Re-keys accounts in a scratch database ({@code -Dvault.db}), including rows
+ * from before envelope encryption, whose data key is the vault key itself.
+ */
+class PasswordChangeServiceTest {
+
+	@TempDir
+	static Path dir;
+
+	private final UserDAO userDao = new UserDAO();
+	private final PasswordChangeService service = new PasswordChangeService();
+
+	/** Ciphertext of each file row by id, with the IV it was sealed with. */
+	private final Map<Integer, byte[][]> sealed = new LinkedHashMap<>();
+
+	@BeforeAll
+	static void scratchDatabase() {
+		System.setProperty("vault.db", dir.resolve("vault.db").toString());
+		SchemaMigrator.migrate();
+	}
+
+	@AfterAll
+	static void closeDatabase() {
+		AuditLogDAO.shutdown();
+		DbConnection.shutdown();
+		System.clearProperty("vault.db");
+	}
+
+	// =========================
+	// ROUND TRIP
+	// =========================
+	@Test
+	void rekeyRewrapsEnvelopeAndLegacyRows() throws Exception {
+		// An account from before per-user salts, costs and dedup keys
+		User user = register("legacy@example.com", "old password", null);
+		VaultKey key = kek(user, "old password");
+		SecretKey dedupKey = ContentDigest.deriveKey(key);
+		addFile(user, key, KeyWrap.newDataKey());
+		addFile(user, key, null);
+		addFile(user, key, KeyWrap.newDataKey());
+
+		User other = register("other@example.com", "other password", CryptoUtil.b64(CryptoUtil.generateSalt()));
+		VaultKey otherKey = kek(other, "other password");
+		addFile(other, otherKey, null);
+		List<String[]> otherRows = wrappedKeys(other.getEmail());
+
+		service.rekey(user, key, "new password".toCharArray());
+
+		// The session key was replaced in place by the one the new password derives
+		VaultKey expected = kek(user, "new password");
+		assertArrayEquals(expected.getEncoded(), key.getEncoded());
+		assertNotNull(user.getVaultSalt());
+		assertTrue(PasswordUtil.verifyPassword("new password".toCharArray(), user.getPassword()));
+
+		User stored = userDao.findByEmail(user.getEmail());
+		assertEquals(user.getVaultSalt(), stored.getVaultSalt());
+		assertEquals(user.getKdfIterations(), stored.getKdfIterations());
+		assertEquals(user.getPassword(), stored.getPassword());
+
+		// Every row, the legacy one included, now has a data key wrapped under the new vault key
+		for (String[] row : wrappedKeys(user.getEmail())) {
+			byte[][] file = sealed.get(Integer.parseInt(row[0]));
+			SecretKey dataKey = KeyWrap.unwrap(row[1], expected);
+			assertArrayEquals(plaintext(row[0]), CryptoUtil.decrypt(file[1], dataKey, file[0]), "file " + row[0]);
+		}
+		SecretKey rewrappedDedup = KeyWrap.unwrap(userDao.findDedupKey(user.getEmail()), expected, ContentDigest.HMAC_ALGO);
+		assertArrayEquals(dedupKey.getEncoded(), rewrappedDedup.getEncoded());
+
+		assertEquals(toMap(otherRows), toMap(wrappedKeys(other.getEmail())));
+	}
+
+	@Test
+	void staleCredentialsChangeNothing() throws Exception {
+		User user = register("stale@example.com", "password", CryptoUtil.b64(CryptoUtil.generateSalt()));
+		VaultKey key = kek(user, "password");
+		addFile(user, key, null);
+		addFile(user, key, KeyWrap.newDataKey());
+		List<String[]> before = wrappedKeys(user.getEmail());
+		byte[] keyBefore = key.getEncoded();
+
+		// Another session changed the password after this one read the account
+		User stale = new User(user.getFirstName(), user.getLastName(), user.getEmail(), user.getPassword(),
+				user.getRole(), CryptoUtil.b64(CryptoUtil.generateSalt()));
+
+		assertThrows(IllegalStateException.class, () -> service.rekey(stale, key, "new password".toCharArray()));
+		assertArrayEquals(keyBefore, key.getEncoded());
+		assertEquals(toMap(before), toMap(wrappedKeys(user.getEmail())));
+		assertNull(userDao.findDedupKey(user.getEmail()));
+		assertEquals(user.getVaultSalt(), userDao.findByEmail(user.getEmail()).getVaultSalt());
+	}
+
+	// =========================
+	// HELPERS
+	// =========================
+	private User register(String email, String password, String salt) {
+		// Low BCrypt cost: the hash is only checked by the assertions here
+		User user = new User("Test", "User", email, BCrypt.hashpw(password, BCrypt.gensalt(4)), "USER", salt);
+		userDao.insert(user);
+		return userDao.findByEmail(email);
+	}
+
+	private static VaultKey kek(User user, String password) throws Exception {
+		return SessionKeyService.deriveAsync(password.toCharArray(), SessionKeyService.vaultSalt(user),
+				SessionKeyService.kdfIterations(user)).get();
+	}
+
+	/** Adds a sealed file row; a null {@code dataKey} makes a legacy row sealed under the vault key. */
+	private void addFile(User user, SecretKey vaultKey, SecretKey dataKey) throws Exception {
+		String sql = "INSERT INTO files (owner_email, original_name, encrypted_path, iv, wrapped_key) VALUES (?, ?, ?, ?, ?)";
+		byte[] iv = CryptoUtil.generateIV();
+		String path = dir.resolve(CryptoUtil.b64(CryptoUtil.generateSalt()).replace('/', '_')).toString();
+		try (Connection conn = DbConnection.connect(); PreparedStatement ps = conn.prepareStatement(sql)) {
+			ps.setString(1, user.getEmail());
+			ps.setString(2, "file.txt");
+			ps.setString(3, path);
+			ps.setString(4, CryptoUtil.b64(iv));
+			ps.setString(5, dataKey == null ? null : KeyWrap.wrap(dataKey, vaultKey));
+			ps.executeUpdate();
+		}
+		try (Connection conn = DbConnection.connect(); PreparedStatement ps = conn.prepareStatement(
+				"SELECT id FROM files WHERE encrypted_path = ?")) {
+			ps.setString(1, path);
+			try (ResultSet rs = ps.executeQuery()) {
+				rs.next();
+				String id = rs.getString(1);
+				byte[] body = CryptoUtil.encrypt(plaintext(id), dataKey == null ? vaultKey : dataKey, iv);
+				sealed.put(Integer.parseInt(id), new byte[][] { iv, body });
+			}
+		}
+	}
+
+	private static byte[] plaintext(String id) {
+		return ("contents of file " + id).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static List<String[]> wrappedKeys(String email) throws Exception {
+		try (Connection conn = DbConnection.connect()) {
+			return new FileDAO().findWrappedKeys(conn, email);
+		}
+	}
+
+	private static Map<String, String> toMap(List<String[]> rows) {
+		Map<String, String> map = new LinkedHashMap<>();
+		for (String[] row : rows) map.put(row[0], row[1]);
+		return map;
+	}
+}